@@ -0,0 +1,40 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 热门笔记排行配置，对应 application.yaml 中的 hmdp.blog.hot
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.blog.hot")
+public class BlogHotProperties {
+    /**
+     * 热度半衰期，一次点赞带来的热度每过一个半衰期减半
+     */
+    private Duration halfLife = Duration.ofHours(24);
+    /**
+     * 每个点赞的热度
+     */
+    private double likeWeight = 1;
+    /**
+     * 每条评论的热度
+     */
+    private double commentWeight = 3;
+    /**
+     * 发布笔记时的初始热度
+     */
+    private double postWeight = 10;
+    /**
+     * 排行榜最多保留的笔记数
+     */
+    private int maxSize = 1000;
+    /**
+     * 排行榜为空时，从最近多少天的笔记初始化
+     */
+    private int seedDays = 7;
+}
@@ -0,0 +1,48 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 布隆过滤器配置，对应 application.yaml 中的 hmdp.bloom
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.bloom")
+public class BloomFilterProperties {
+    /**
+     * 是否开启布隆过滤器，关闭后所有id都直接放行
+     */
+    private boolean enabled = false;
+    /**
+     * 期望的误判率
+     */
+    private double falseProbability = 0.01;
+    /**
+     * 预计元素数 = 表中记录数 * 该系数，给重建前新增的数据留出余量
+     */
+    private double expectedInsertionsFactor = 2.0;
+    /**
+     * 预计元素数的下限
+     */
+    private long minExpectedInsertions = 10000;
+    /**
+     * 重建时每页读取的id数量
+     */
+    private int pageSize = 1000;
+    /**
+     * 定时重建的cron表达式，删除的数据会在重建后从过滤器中消失
+     */
+    private String rebuildCron = "0 0 4 * * ?";
+    /**
+     * 各节点刷新当前过滤器的间隔
+     */
+    private Duration refreshInterval = Duration.ofSeconds(30);
+    /**
+     * 重建后旧过滤器的保留时间，必须大于刷新间隔，保证还没有切换的节点可以继续使用
+     */
+    private Duration retiredTtl = Duration.ofMinutes(10);
+}
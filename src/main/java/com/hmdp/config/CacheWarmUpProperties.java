@@ -0,0 +1,36 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 启动预热配置，对应 application.yaml 中的 hmdp.warmup
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.warmup")
+public class CacheWarmUpProperties {
+    /**
+     * 是否在启动时预热缓存
+     */
+    private boolean enabled = false;
+    /**
+     * 是否在后台预热，false时预热完成后才开始接收请求
+     */
+    private boolean async = false;
+    /**
+     * 每页读取的店铺数
+     */
+    private int pageSize = 500;
+    /**
+     * 同时写入Redis的页数
+     */
+    private int concurrency = 4;
+    /**
+     * 两次预热的最小间隔，多个节点同时启动时只有一个节点预热
+     */
+    private Duration minInterval = Duration.ofMinutes(10);
+}
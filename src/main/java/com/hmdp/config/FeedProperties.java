@@ -0,0 +1,52 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 关注流推送配置，对应 application.yaml 中的 hmdp.feed
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.feed")
+public class FeedProperties {
+    /**
+     * 粉丝数达到该值的作者改为拉模式，笔记只写入作者自己的发件箱
+     */
+    private long bigAuthorThreshold = 5000;
+    /**
+     * 作者粉丝数的缓存时长，发布笔记时判断是否为大V使用，过期后重新查询数据库
+     */
+    private Duration followerCountTtl = Duration.ofMinutes(10);
+    /**
+     * 推模式下每批推送的粉丝数
+     */
+    private int fanoutBatchSize = 500;
+    /**
+     * 推送线程数
+     */
+    private int fanoutThreads = 4;
+    /**
+     * 每个节点同时处理中的推送任务数上限，超过时暂停从 stream.feed 读取
+     */
+    private int maxInflight = 16;
+    /**
+     * 推送任务的消费者组名称
+     */
+    private String consumerGroup = "g1";
+    /**
+     * 推送任务空闲超过该时间仍未确认时可被重新认领
+     */
+    private Duration claimMinIdle = Duration.ofSeconds(60);
+    /**
+     * 每个收件箱最多保留的笔记数，推送时裁剪
+     */
+    private int inboxMaxSize = 1000;
+    /**
+     * 每个发件箱最多保留的笔记数
+     */
+    private int outboxMaxSize = 1000;
+}
@@ -0,0 +1,56 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 热点key探测配置，对应 application.yaml 中的 hmdp.hotkey
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.hotkey")
+public class HotKeyProperties {
+    /**
+     * 是否开启热点key探测
+     */
+    private boolean enabled = false;
+    /**
+     * 采样率，只统计这个比例的访问，计数时按比例放大
+     */
+    private double sampleRate = 0.1;
+    /**
+     * 滑动窗口长度
+     */
+    private Duration window = Duration.ofSeconds(60);
+    /**
+     * 滑动窗口拆分的桶数，每过 window/buckets 淘汰最旧的一个桶
+     */
+    private int buckets = 6;
+    /**
+     * 窗口内访问次数（估算值）达到该值即认为是热点key
+     */
+    private long threshold = 1000;
+    /**
+     * 对外展示的热点key数量
+     */
+    private int topK = 20;
+    /**
+     * count-min sketch 每行的计数器个数，必须是2的幂
+     */
+    private int sketchWidth = 4096;
+    /**
+     * count-min sketch 的行数（哈希函数个数）
+     */
+    private int sketchDepth = 4;
+    /**
+     * 热点key固定在本地缓存中的时间，过期后重新从Redis加载
+     */
+    private Duration pinTtl = Duration.ofSeconds(3);
+    /**
+     * 本地最多固定的热点key数量
+     */
+    private long pinMaximumSize = 1000;
+}
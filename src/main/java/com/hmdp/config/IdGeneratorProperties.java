@@ -0,0 +1,28 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 全局ID生成器配置，对应 application.yaml 中的 hmdp.id
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdGeneratorProperties {
+    /**
+     * ID生成器实现：redis 或 snowflake
+     */
+    private String generator = "redis";
+    /**
+     * 号段大小：每次从Redis INCRBY一段序列号在本地分配，小于等于1时每个ID都INCR一次
+     */
+    private int segmentSize = 1;
+    /**
+     * 雪花算法workerId在Redis中的租约时长，每三分之一租约续约一次
+     */
+    private Duration workerLeaseTtl = Duration.ofSeconds(60);
+}
@@ -0,0 +1,42 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本地一级缓存配置，对应 application.yaml 中的 hmdp.cache.local
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.local")
+public class LocalCacheProperties {
+    /**
+     * 是否开启本地缓存
+     */
+    private boolean enabled = false;
+    /**
+     * 按key前缀分别配置容量和过期时间，没有配置的前缀不做本地缓存
+     */
+    private List<Spec> specs = new ArrayList<>();
+
+    @Data
+    public static class Spec {
+        /**
+         * key前缀，例如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 最多缓存的key数量
+         */
+        private long maximumSize = 10000;
+        /**
+         * 写入后的过期时间，跨节点失效依赖发布订阅，过期时间兜底
+         */
+        private Duration ttl = Duration.ofSeconds(10);
+    }
+}
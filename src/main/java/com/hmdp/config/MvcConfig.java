@@ -1,9 +1,13 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.BulkheadInterceptor;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenService;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -12,13 +16,25 @@ import javax.annotation.Resource;
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokenService signedTokenService;
+    @Resource
+    private SessionProperties sessionProperties;
+    @Resource
+    private RateLimiter rateLimiter;
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+//补货接口 /voucher/seckill/{id}/stock 需要登录，不在放行列表中，是否为管理员由补货方法判断
         registry.addInterceptor(new LoginInterceptor())
-                .excludePathPatterns("/user/login","/shop/**","/blog/hot","/user/code","/voucher/**","/upload/**","/shop-type/**").order(1);
+                .excludePathPatterns("/user/login","/shop/**","/blog/hot","/user/code","/voucher","/voucher/seckill","/voucher/list/**","/upload/**","/shop-type/**").order(1);
 //token刷新的拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokenService,
+                sessionProperties.getSensitivePaths())).order(0);
+//限流拦截器，在登录拦截器之后执行，可以按登录用户限流
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter)).order(2);
+//并发隔离拦截器，限流通过后才占用并发名额
+        registry.addInterceptor(new BulkheadInterceptor()).order(3);
 
     }
 }
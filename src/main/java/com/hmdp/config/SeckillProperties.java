@@ -0,0 +1,62 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 秒杀相关配置，对应 application.yaml 中的 hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+    /**
+     * 是否开启批量消费 stream.orders
+     */
+    private boolean batchEnabled = false;
+    /**
+     * 每批最多处理的订单数
+     */
+    private int batchSize = 100;
+    /**
+     * 凑批的最长等待时间，到时即使不满一批也会落库
+     */
+    private Duration maxLinger = Duration.ofMillis(200);
+    /**
+     * 消费者组名称
+     */
+    private String consumerGroup = "g1";
+    /**
+     * 每个节点的消费者线程数
+     */
+    private int consumerThreads = 1;
+    /**
+     * pending消息空闲超过该时间后可被其他消费者认领
+     */
+    private Duration claimMinIdle = Duration.ofSeconds(30);
+    /**
+     * 每次最多认领的pending消息数
+     */
+    private long claimCount = 100;
+    /**
+     * 新建秒杀券时库存拆分的分片数，1表示不分片
+     */
+    private int stockShards = 1;
+    /**
+     * 本地售罄标记的有效期，过期后会重新访问Redis确认库存
+     */
+    private Duration soldOutFlagTtl = Duration.ofSeconds(60);
+    /**
+     * Redis中没有秒杀券元数据时，本地缓存默认元数据的时长
+     */
+    private Duration metaMissTtl = Duration.ofSeconds(5);
+    /**
+     * 允许给秒杀券补货的管理员用户id，为空时任何人都不能补货
+     */
+    private List<Long> adminUserIds = new ArrayList<>();
+}
@@ -0,0 +1,57 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 登录会话配置，对应 application.yaml 中的 hmdp.session
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.session")
+public class SessionProperties {
+    /**
+     * 是否在本地缓存token对应的用户，命中时不访问Redis
+     */
+    private boolean localCacheEnabled = true;
+    /**
+     * 本地缓存的过期时间，注销通知丢失时最多在这段时间内仍能使用旧会话
+     */
+    private Duration localCacheTtl = Duration.ofSeconds(30);
+    /**
+     * 本地缓存最多保存的会话数
+     */
+    private long localCacheMaximumSize = 10000;
+    /**
+     * 会话剩余有效期低于该值时才刷新Redis中的有效期，避免每个请求都发送EXPIRE
+     */
+    private Duration refreshThreshold = Duration.ofMinutes(20);
+    /**
+     * 登录时签发的token类型：redis为随机token加Redis会话，signed为签名token，校验时不访问Redis。
+     * 两种token可以同时使用，切换模式后旧token在过期前仍然有效
+     */
+    private String tokenMode = "redis";
+    /**
+     * 签名token的HMAC密钥，所有节点必须相同；为空时启动时随机生成，只适合单节点
+     */
+    private String signingSecret;
+    /**
+     * 签名token的有效期
+     */
+    private Duration signedTokenTtl = Duration.ofMinutes(30);
+    /**
+     * 签名token剩余有效期低于该值时重新签发，新token通过响应头authorization返回
+     */
+    private Duration signedTokenRenewBefore = Duration.ofMinutes(10);
+    /**
+     * 需要检查签名token是否已注销的路径，其他路径只校验签名和有效期
+     */
+    private List<String> sensitivePaths = new ArrayList<>(Arrays.asList(
+            "/voucher-order/**", "/blog", "/blog-comments", "/follow/**", "/user/sign"));
+}
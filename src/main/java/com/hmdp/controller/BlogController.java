@@ -8,6 +8,8 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.Bulkhead;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -38,6 +40,8 @@ public class BlogController {
     }
 
     @PutMapping("/like/{id}")
+    @RateLimit(by = RateLimit.Dimension.USER, global = false, limit = 10)
+    @Bulkhead(20)
     public Result likeBlog(@PathVariable("id") Long id) {
         return blogService.likeBlog(id);
     }
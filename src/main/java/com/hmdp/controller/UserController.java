@@ -9,12 +9,17 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
 
 /**
  * <p>
@@ -35,10 +40,16 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
+
     /**
      * 发送手机验证码
      */
     @PostMapping("code")
+    @RateLimit(by = RateLimit.Dimension.PARAM, param = "phone", limit = 1, window = 60, message = "验证码发送过于频繁，请1分钟后再试")
+    @RateLimit(by = RateLimit.Dimension.PARAM, param = "phone", limit = 10, window = 1, unit = TimeUnit.DAYS, message = "今日验证码发送次数已达上限")
+    @RateLimit(by = RateLimit.Dimension.IP, limit = 20, window = 1, unit = TimeUnit.MINUTES)
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
 
         return userService.sendCode(phone,session);
@@ -49,6 +60,7 @@ public class UserController {
      * @param loginForm 登录参数，包含手机号、验证码；或者手机号、密码
      */
     @PostMapping("/login")
+    @RateLimit(by = RateLimit.Dimension.IP, limit = 30, window = 1, unit = TimeUnit.MINUTES)
     public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session){
         // 实现登录功能
         return userService.login(loginForm,session);
@@ -59,9 +71,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader("authorization") String token){
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -87,6 +98,10 @@ public class UserController {
 
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
+        // 布隆过滤器判断用户不存在时不查数据库
+        if (!cacheBloomFilter.mightContain(CACHE_USER_KEY, userId)) {
+            return Result.ok();
+        }
         // 查询详情
         User user = userService.getById(userId);
         if (user == null) {
@@ -3,6 +3,8 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.Bulkhead;
+import com.hmdp.utils.RateLimit;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -24,6 +26,9 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
     @PostMapping("seckill/{id}")
+    @RateLimit(by = RateLimit.Dimension.GLOBAL, global = false, limit = 1000, message = "抢购人数过多，请稍后再试")
+    @RateLimit(by = RateLimit.Dimension.USER, global = false, limit = 5)
+    @Bulkhead(value = 8, message = "抢购人数过多，请稍后再试")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
 
         return voucherOrderService.seckillVoucher(voucherId);
@@ -2,9 +2,45 @@ package com.hmdp.dto;
 
 import lombok.Data;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Data
 public class UserDTO {
     private Long id;
     private String nickName;
     private String icon;
+
+    /**
+     * 转为Redis会话hash，值为null的字段不写入
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>(4);
+        if (id != null) {
+            map.put("id", id.toString());
+        }
+        if (nickName != null) {
+            map.put("nickName", nickName);
+        }
+        if (icon != null) {
+            map.put("icon", icon);
+        }
+        return map;
+    }
+
+    /**
+     * 从Redis会话hash还原
+     */
+    public static UserDTO fromMap(Map<?, ?> map) {
+        UserDTO userDTO = new UserDTO();
+        Object id = map.get("id");
+        if (id != null) {
+            userDTO.setId(Long.valueOf(id.toString()));
+        }
+        Object nickName = map.get("nickName");
+        userDTO.setNickName(nickName == null ? null : nickName.toString());
+        Object icon = map.get("icon");
+        userDTO.setIcon(icon == null ? null : icon.toString());
+        return userDTO;
+    }
 }
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,19 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 批量累加点赞数，一条UPDATE更新多篇笔记
+     * @param deltas 笔记id -> 点赞数增量
+     */
+    int updateLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 记录点赞数写回批次，批次号已存在时抛出DuplicateKeyException
+     */
+    int insertLikeFlush(@Param("flushId") Long flushId);
+
+    /**
+     * 清除早于time的写回批次记录
+     */
+    int deleteLikeFlushBefore(@Param("time") LocalDateTime time);
 }
@@ -18,4 +18,6 @@ public interface IVoucherService extends IService<Voucher> {
 
     void addSeckillVoucher(Voucher voucher);
 
+    Result addSeckillStock(Long voucherId, Integer count);
+
 }
@@ -1,10 +1,17 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -16,5 +23,29 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private BlogHotRanking blogHotRanking;
 
+    @Override
+    @Transactional
+    public Result saveComment(BlogComments comment) {
+        if (comment.getBlogId() == null) {
+            return Result.fail("笔记id不能为空");
+        }
+        //1.笔记评论数+1
+        boolean isSuccess = blogService.update().setSql("comments = comments + 1")
+                .eq("id", comment.getBlogId()).update();
+        if (!isSuccess) {
+            return Result.fail("笔记不存在");
+        }
+        //2.保存评论
+        comment.setUserId(UserHolder.getUser().getId());
+        comment.setLiked(0);
+        save(comment);
+        //3.更新笔记热度
+        blogHotRanking.onComment(comment.getBlogId());
+        return Result.ok(comment.getId());
+    }
 }
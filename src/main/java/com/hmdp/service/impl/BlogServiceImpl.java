@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -8,30 +7,43 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.BlogLikeFlusher;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.FeedDispatcher;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import io.netty.util.internal.StringUtil;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKES_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
 
 /**
  * <p>
@@ -48,26 +60,59 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private IFollowService followService;
+    private CacheBloomFilter cacheBloomFilter;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private BlogLikeFlusher blogLikeFlusher;
+    @Resource
+    private BlogHotRanking blogHotRanking;
+    @Resource
+    private FeedDispatcher feedDispatcher;
+
+    private static final int FEED_PAGE_SIZE = 2;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @PostConstruct
+    private void init() {
+        cacheBloomFilter.register(CACHE_BLOG_KEY, this);
+    }
+
     @Override
     public Result queryBlogHot(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog->{
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 从热门排行榜分页查询笔记id
+        List<Long> ids = blogHotRanking.page(current, SystemConstants.MAX_PAGE_SIZE);
+        List<Blog> records;
+        if (ids.isEmpty() && !blogHotRanking.isReady()) {
+            // 排行榜还没有初始化，按点赞数查询数据库
+            records = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE))
+                    .getRecords();
+        } else {
+            // 批量查询笔记，按排行榜顺序返回
+            records = listByIdsInOrder(ids);
+        }
+        // 批量查询用户
+        this.queryBlogUsers(records);
+        records.forEach(this::isBlogLiked);
+        // 加上还没有写回数据库的点赞数
+        this.mergePendingLikes(records);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id) {
-        //1.查询blog
+        //1.查询blog，布隆过滤器判断不存在时不查数据库
+        if (!cacheBloomFilter.mightContain(CACHE_BLOG_KEY, id)) {
+            return Result.fail("笔记不存在");
+        }
         Blog blog = getById(id);
        if (blog == null) {
            return Result.fail("笔记不存在");
@@ -77,6 +122,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         queryBlogUser(blog);
        //3.查询blog是否被点赞
         isBlogLiked(blog);
+        mergePendingLikes(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
@@ -90,7 +136,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         Long userId = UserHolder.getUser().getId();
         //2.判断当前用户是否已经点赞
-        String key="blog:like:"+blog.getId();
+        String key=BLOG_LIKED_KEY+blog.getId();
+        hotKeyDetector.record(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         blog.setIsLike(score!=null);
     }
@@ -99,27 +146,20 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result likeBlog(Long id) {
         //1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        //2.判断当前用户是否已经点赞
+        if (!cacheBloomFilter.mightContain(CACHE_BLOG_KEY, id)) {
+            return Result.fail("笔记不存在");
+        }
         String key=BLOG_LIKED_KEY+id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-
-        if(score==null){
-            //3.如果未点赞
-            //数据库点赞数+1
-            boolean isSuccess = update().setSql("liked=liked+1").eq("id", id).update();
-            //保存用户到redis的set集合
-            if(isSuccess){
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(),System.currentTimeMillis());
-            }
-        }else {
-            //4.已点赞
-            //数据库点赞数-1
-            boolean isSuccess = update().setSql("liked=liked-1").eq("id", id).update();
-            if(isSuccess){
-                //从redis的set集合移除用户
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-}
-
+        hotKeyDetector.record(key);
+        //2.执行lua脚本，判断是否已点赞并点赞或取消点赞，点赞数的增量记录在Redis中，定时批量写回数据库
+        Long result = stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(key, BLOG_LIKES_DELTA_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), id.toString());
+        //3.更新热度，0为点赞，大于0为取消点赞，返回值是当初的点赞时间
+        if (result != null && result == 0) {
+            blogHotRanking.onLike(id);
+        } else if (result != null) {
+            blogHotRanking.onUnlike(id, result);
         }
         return Result.ok();
     }
@@ -128,19 +168,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogLikes(Long id) {
         //1.查top5的点赞用户 zrange key 0 4
         String key = BLOG_LIKED_KEY+id;
+        hotKeyDetector.record(key);
         //2.解析用户ID
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
         if (top5 == null || top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",",ids);
-        //3.根据id查用户
-        List<User> users = userService.query().in("id", ids)
-                .last("ORDER BY FIELD(id,"+ idStr +")").list();
-        //转换为UserDTO类型
-        List<UserDTO> userDTOS = users.stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //3.根据id批量查用户，按点赞顺序返回
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
         return Result.ok(userDTOS);
     }
 
@@ -149,23 +185,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
         blog.setUserId(user.getId());
+        //create_time精确到秒，关注流的分数与它保持一致，Redis中查不到时才能按相同的分数从数据库继续查询
+        blog.setCreateTime(LocalDateTime.now().withNano(0));
         //2.保存探店博文
         boolean isSuccess = save(blog);
         if(!isSuccess){
             return Result.fail("新增笔记失败");
         }
-        //3.查作者的粉丝 select * from tb_follow where follow_user_id=?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-
-        //4.推送笔记id给粉丝
-        for (Follow follow : follows) {
-            //获取粉丝id
-            Long userId = follow.getUserId();
-            //推送
-            String key=FEED_KEY+userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
-
+        cacheBloomFilter.add(CACHE_BLOG_KEY, blog.getId());
+        blogHotRanking.onPost(blog.getId());
+        //3.推送到关注流，普通作者异步推送给粉丝，大V只写发件箱
+        feedDispatcher.publish(user.getId(), blog.getId(), toFeedScore(blog.getCreateTime()));
         return Result.ok(blog.getId());
     }
 
@@ -174,14 +204,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
 
-        // 2.查询收件箱
-        String key = FEED_KEY + userId;
-
-        // 修正：使用正确的offset处理
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        // 2.查询收件箱，并合并关注的大V的发件箱
+        List<ZSetOperations.TypedTuple<String>> typedTuples = feedDispatcher.read(userId, max, offset, FEED_PAGE_SIZE);
+        if (typedTuples.size() < FEED_PAGE_SIZE && feedDispatcher.isTruncated(userId)) {
+            // 超出Redis保留的范围，按相同的max和offset从数据库查询关注的作者的笔记
+            typedTuples = queryFollowArchive(userId, max, offset);
+        }
 
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        if (typedTuples.isEmpty()) {
             return Result.ok();
         }
 
@@ -206,16 +236,20 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
 
+        // 本页的笔记分数都等于max时，下一页还要跳过上一页已经跳过的部分
+        if (minTime == max) {
+            newOffset += offset;
+        }
+
         // 4.根据id查询blog，保持顺序
         if (!ids.isEmpty()) {
             String idStr = StrUtil.join(",", ids);
             List<Blog> blogs = query().in("id", ids)
                     .last("ORDER BY FIELD(id," + idStr + ")").list();
 
-            for (Blog blog : blogs) {
-                queryBlogUser(blog);
-                isBlogLiked(blog);
-            }
+            queryBlogUsers(blogs);
+            blogs.forEach(this::isBlogLiked);
+            mergePendingLikes(blogs);
 
             // 5.封装并返回
             ScrollResult r = new ScrollResult();
@@ -228,10 +262,62 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok();
     }
 
+    //关注流的冷数据：查询关注的作者创建时间不晚于max的笔记，排序与ZREVRANGEBYSCORE一致，offset的含义不变
+    private List<ZSetOperations.TypedTuple<String>> queryFollowArchive(Long userId, long max, int offset) {
+        LocalDateTime maxTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(max), ZoneId.systemDefault());
+        List<Blog> blogs = query()
+                .select("id", "create_time")
+                .inSql("user_id", "SELECT follow_user_id FROM tb_follow WHERE user_id = " + userId)
+                .le("create_time", maxTime)
+                // 同一秒内按id的字符串倒序，与Redis中相同分数的成员顺序一致
+                .last("ORDER BY create_time DESC, CAST(id AS CHAR) DESC LIMIT " + offset + "," + FEED_PAGE_SIZE)
+                .list();
+        return blogs.stream()
+                .<ZSetOperations.TypedTuple<String>>map(blog -> new DefaultTypedTuple<>(blog.getId().toString(), (double) toFeedScore(blog.getCreateTime())))
+                .collect(Collectors.toList());
+    }
+
+    private long toFeedScore(LocalDateTime createTime) {
+        return createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    //根据id批量查询笔记，保持ids的顺序，已删除的笔记会被跳过
+    private List<Blog> listByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Blog> blogs = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+        return ids.stream().map(blogs::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    //点赞数 = 数据库中的点赞数 + Redis中还没有写回的增量
+    private void mergePendingLikes(List<Blog> blogs) {
+        List<Long> ids = blogs.stream().map(Blog::getId).collect(Collectors.toList());
+        Map<Long, Long> deltas = blogLikeFlusher.pendingDeltas(ids);
+        for (Blog blog : blogs) {
+            Long delta = deltas.get(blog.getId());
+            if (delta != null) {
+                int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                blog.setLiked((int) Math.max(0, liked + delta));
+            }
+        }
+    }
+
     private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUsers(Collections.singletonList(blog));
+    }
+
+    //批量查询作者信息，一次查缓存，未命中的用户一次查库
+    private void queryBlogUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, user -> user));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
@@ -1,11 +1,9 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -98,13 +96,8 @@ private IUserService userService;
                 //解析id集合
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
 
-        //查询用户
-        List<User> users = userService.listByIds(ids);
-
-        //数据转换
-        List<UserDTO> userDTOS = users.stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //批量查询用户，优先走缓存
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
         return Result.ok(userDTOS);
     }
 }
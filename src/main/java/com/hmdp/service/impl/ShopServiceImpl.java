@@ -9,6 +9,7 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheBloomFilter;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
@@ -23,6 +24,7 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -47,11 +49,27 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private final StringRedisTemplate stringRedisTemplate;
 @Resource
 private CacheClient cacheClient;
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
 
     public ShopServiceImpl(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init() {
+        cacheBloomFilter.register(CACHE_SHOP_KEY, this);
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        //1.写入数据库
+        save(shop);
+        //2.写入布隆过滤器
+        cacheBloomFilter.add(CACHE_SHOP_KEY, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     @Override
     public Result queryById(Long id) {
         // 先尝试逻辑过期方案
@@ -85,8 +103,8 @@ private CacheClient cacheClient;
         }
         //1.更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(shopKey);
+        //2.删除缓存，同时通知各节点失效本地缓存
+        cacheClient.delete(shopKey);
         return Result.ok();
     }
 
@@ -1,21 +1,19 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisConstants;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheClient;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_TTL;
 
 /**
  * <p>
@@ -28,29 +26,13 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
-    @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
     @Override
     public Result queryType() {
-        // 先检查是否存在缓存
-        String allTypesKey = CACHE_SHOPTYPE_KEY + "all";
-        String cachedJson = stringRedisTemplate.opsForValue().get(allTypesKey);
-
-        //命中直接返回
-        if (StrUtil.isNotBlank(cachedJson)) {
-            List<ShopType> cachedTypes = JSONUtil.toList(cachedJson, ShopType.class);
-            return Result.ok(cachedTypes);
-        }
-
-
-        //如果没命中Redis
-        List<ShopType> typeList = query().orderByAsc("sort").list();
-        typeList.stream()
-                .forEach(type -> {
-                    String shopTypeKey= CACHE_SHOPTYPE_KEY+type.getId();
-                    stringRedisTemplate.opsForValue().set(shopTypeKey, JSONUtil.toJsonStr(type));
-                });
-
+        // 查询缓存的全部类型，未命中时查库并写入缓存
+        List<ShopType> typeList = cacheClient.queryList(CACHE_SHOPTYPE_KEY + "all", ShopType.class,
+                () -> query().orderByAsc("sort").list(), CACHE_SHOPTYPE_TTL, TimeUnit.MINUTES);
         return Result.ok(typeList);
     }
 }
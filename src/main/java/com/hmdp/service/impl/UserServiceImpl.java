@@ -1,33 +1,46 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SessionProperties;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokenService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -44,6 +57,31 @@ import static com.hmdp.utils.RedisConstants.*;
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 @Resource
 private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokenService signedTokenService;
+    @Resource
+    private SessionProperties sessionProperties;
+    @Resource
+    private RateLimiter rateLimiter;
+
+    private static final DefaultRedisScript<Long> LOGIN_SCRIPT;
+    static {
+        LOGIN_SCRIPT = new DefaultRedisScript<>();
+        LOGIN_SCRIPT.setLocation(new ClassPathResource("login.lua"));
+        LOGIN_SCRIPT.setResultType(Long.class);
+    }
+
+    @PostConstruct
+    private void init() {
+        cacheBloomFilter.register(CACHE_USER_KEY, this);
+    }
+
     /**
      * 发送验证码
      * @param phone
@@ -71,38 +109,83 @@ private StringRedisTemplate stringRedisTemplate;
         if (RegexUtils.isPhoneInvalid(phone)) {
             return Result.fail("手机号格式错误！");
         }
-        //校验验证码
-        String cacheCode = stringRedisTemplate.opsForValue().get(LOGIN_CODE_KEY+phone);
         String code = loginForm.getCode();
-        if (cacheCode == null || !cacheCode.equals(code)) {
+        if (StrUtil.isBlank(code)) {
             return Result.fail("验证码错误");
         }
+        //同一手机号限制尝试次数，防止暴力猜测验证码；手机号在请求体中，无法用注解按参数限流
+        if (!rateLimiter.tryAcquire("login:phone:" + phone, 5, TimeUnit.MINUTES.toMillis(5))) {
+            return Result.fail("登录尝试过于频繁，请稍后再试");
+        }
 
-        //校验通过,根据手机号查用户
-        User user = query().eq("phone", phone).one();
+        //1.先原子地校验并删除验证码，同一个验证码只有一个请求能继续，之后才查询或创建用户
+        Long result = stringRedisTemplate.execute(LOGIN_SCRIPT,
+                Collections.singletonList(LOGIN_CODE_KEY + phone), code);
+        if (result == null || result == 0) {
+            return Result.fail("验证码错误");
+        }
+
+        //2.根据手机号查用户，手机号到用户的索引走缓存
+        UserDTO userDTO = cacheClient.queryWithPassThrough(CACHE_USER_PHONE_KEY, phone, UserDTO.class,
+                this::queryUserDTOByPhone, CACHE_USER_TTL, TimeUnit.MINUTES);
         //判断用户是否存在
-        if (user == null) {
-            //不存在则创建新用户并保存
-            user=createUserWithPhone(phone);
+        if (userDTO == null) {
+            User user = createUserWithPhone(phone);
+            //清除缓存的空值
+            cacheClient.delete(CACHE_USER_PHONE_KEY + phone);
+            userDTO = new UserDTO();
+            userDTO.setId(user.getId());
+            userDTO.setNickName(user.getNickName());
+            userDTO.setIcon(user.getIcon());
         }
-        //保存用户信息到Redis中
-        //随机生成token
+
+        //3.签名token模式：用户信息签名后直接返回，不写会话
+        if ("signed".equals(sessionProperties.getTokenMode())) {
+            return Result.ok(signedTokenService.issue(userDTO));
+        }
+        //随机生成token，一次往返写入会话hash并设置有效期 HSET + PEXPIRE
         String token = UUID.randomUUID().toString(true);
-        //将User对象转为Hash存储
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO,new HashMap<>(),
-                CopyOptions.create().setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName,fieldValue)->fieldValue.toString()));
-        //存储
-        String tokenKey = LOGIN_USER_KEY+ token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey,userMap);
-        //设置有效期
-        stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL, TimeUnit.MINUTES);
+        byte[] tokenKey = StrUtil.utf8Bytes(LOGIN_USER_KEY + token);
+        Map<byte[], byte[]> fields = new HashMap<>(4);
+        userDTO.toMap().forEach((field, value) -> fields.put(StrUtil.utf8Bytes(field), StrUtil.utf8Bytes(value)));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMSet(tokenKey, fields);
+            connection.keyCommands().pExpire(tokenKey, TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+            return null;
+        });
 //返回token
 
         return Result.ok(token);
     }
 
+    //手机号索引只缓存登录需要的字段
+    private UserDTO queryUserDTOByPhone(String phone) {
+        User user = query().select("id", "nick_name", "icon").eq("phone", phone).one();
+        if (user == null) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setNickName(user.getNickName());
+        userDTO.setIcon(user.getIcon());
+        return userDTO;
+    }
+
+    @Override
+    public Result logout(String token) {
+        //签名token记录到注销集合，敏感接口会拒绝该token，也不能再续签
+        if (SignedTokenService.isSignedToken(token)) {
+            SignedTokenService.SignedToken signedToken = signedTokenService.verify(token);
+            if (signedToken != null) {
+                signedTokenService.revoke(signedToken);
+            }
+            return Result.ok();
+        }
+        //删除会话并通知所有节点清除本地缓存
+        loginSessionCache.revoke(token);
+        return Result.ok();
+    }
+
     @Override
     public Result sign() {
         //1.获取当前用户
@@ -163,6 +246,15 @@ private StringRedisTemplate stringRedisTemplate;
         return Result.ok(count);
     }
 
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        List<UserDTO> users = cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+        return users.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
     private User createUserWithPhone(String phone) {
         //创建用户
         User user = new User();
@@ -170,6 +262,7 @@ private StringRedisTemplate stringRedisTemplate;
         user.setNickName(SystemConstants.USER_NICK_NAME_PREFIX +RandomUtil.randomNumbers(10));
         //保存用户
         save(user);
+        cacheBloomFilter.add(CACHE_USER_KEY, user.getId());
         return user;
     }
 }
@@ -1,33 +1,54 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.SeckillMeta;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillSoldOutFlags;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -36,11 +57,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private RedissonClient redissonClient;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillMetaCache seckillMetaCache;
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
 
     // 初始化脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
@@ -49,16 +76,53 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
     }
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
 
-    // 开启线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String QUEUE_NAME = "stream.orders";
 
-    // 使用volatile确保线程可见性
-    private volatile IVoucherOrderService proxy;
+    // 订单消费者线程池，线程数由配置决定
+    private ExecutorService seckillOrderExecutor;
+
+    // 注入自身代理，保证没有收到过秒杀请求的节点也能以事务方式落库
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
 
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 1.创建消费者组，stream不存在时一并创建 XGROUP CREATE stream.orders g1 0 MKSTREAM
+        createGroupIfAbsent();
+        // 2.启动多个消费者，名称由 主机名-进程号-序号 组成，多节点之间不会冲突
+        int threads = seckillProperties.getConsumerThreads();
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("seckill-order-", false));
+        String prefix = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid() + "-";
+        for (int i = 0; i < threads; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(prefix + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        seckillOrderExecutor.shutdownNow();
+    }
+
+    private void createGroupIfAbsent() {
+        String group = seckillProperties.getConsumerGroup();
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    QUEUE_NAME.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+            log.info("创建消费者组成功，group: {}", group);
+        } catch (Exception e) {
+            // BUSYGROUP说明消费者组已经存在
+            if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "BUSYGROUP")) {
+                throw e;
+            }
+        }
     }
 /*
     // 开启异步线程
@@ -78,30 +142,26 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             }
         }  */
 private class VoucherOrderHandler implements Runnable {
-    String queueName="stream.orders";
+    String queueName=QUEUE_NAME;
+    private final String group = seckillProperties.getConsumerGroup();
+    private final Consumer consumer;
+
+    VoucherOrderHandler(String consumerName) {
+        this.consumer = Consumer.from(group, consumerName);
+    }
+
     @Override
     public void run() {
-        while (true) {
+        while (!Thread.currentThread().isInterrupted()) {
             try {
-                // 1.获取消息队列中的订单信息 XREADGROUP GOURP g1 c1 COUNT BLOCK 2000 STREAMS streams.order >
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"), StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                        StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                );
-                //2.1判断消息是否获取成功
-                if (list==null ||list.isEmpty()) {
-                    // 2.2失败则继续尝试获取
-                    continue;
+                boolean handled = seckillProperties.isBatchEnabled()
+                        // 批量模式：一次读多条，一个事务落库，一次ACK
+                        ? handleBatch()
+                        : handleOne();
+                if (!handled) {
+                    // 空闲时认领其他消费者长时间未确认的消息
+                    claimPendingList();
                 }
-                //2.2解析消息中的订单信息
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> value = record.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                //3成功则可以下单
-                handleVoucherOrder(voucherOrder);
-                //4ACK确认  SACK stream.order g1 id
-                stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
-
             } catch (Exception e) {
                 log.error("处理订单异常", e);
                 handlePendingList();
@@ -109,12 +169,128 @@ private class VoucherOrderHandler implements Runnable {
         }
     }
 
+    private boolean handleOne() {
+        // 1.获取消息队列中的订单信息 XREADGROUP GOURP g1 c1 COUNT BLOCK 2000 STREAMS streams.order >
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                consumer, StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                StreamOffset.create(queueName, ReadOffset.lastConsumed())
+        );
+        //2.1判断消息是否获取成功
+        if (list==null ||list.isEmpty()) {
+            // 2.2失败则继续尝试获取
+            return false;
+        }
+        //2.2解析消息中的订单信息
+        MapRecord<String, Object, Object> record = list.get(0);
+        Map<Object, Object> value = record.getValue();
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        //3成功则可以下单
+        handleVoucherOrder(voucherOrder);
+        //4ACK确认  SACK stream.order g1 id
+        stringRedisTemplate.opsForStream().acknowledge(queueName,group,record.getId());
+        return true;
+    }
+
+    private boolean handleBatch() {
+        // 1.凑批读取消息
+        List<MapRecord<String, Object, Object>> records = readBatch();
+        if (records.isEmpty()) {
+            return false;
+        }
+        processBatch(records);
+        return true;
+    }
+
+    private void processBatch(List<MapRecord<String, Object, Object>> records) {
+        // 2.解析消息中的订单信息
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        RecordId[] recordIds = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            recordIds[i] = record.getId();
+        }
+        // 3.一个事务内批量下单，失败则抛出异常，消息留在pending-list
+        proxy.createVoucherOrderBatch(voucherOrders);
+        // 4.一次XACK确认整批消息
+        stringRedisTemplate.opsForStream().acknowledge(queueName, group, recordIds);
+        log.debug("批量处理订单完成，数量: {}", records.size());
+    }
+
+    /**
+     * 读满batchSize条或者等待超过maxLinger后返回，没有消息时返回空集合
+     */
+    private List<MapRecord<String, Object, Object>> readBatch() {
+        int batchSize = seckillProperties.getBatchSize();
+        List<MapRecord<String, Object, Object>> buffer = new ArrayList<>(batchSize);
+        // 第一次读取阻塞等待消息到来，收到第一条消息后才开始计算凑批时间
+        Duration block = Duration.ofSeconds(2);
+        long deadline = 0;
+        while (buffer.size() < batchSize) {
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(batchSize - buffer.size()).block(block),
+                    StreamOffset.create(queueName, ReadOffset.lastConsumed())
+            );
+            if (list == null || list.isEmpty()) {
+                break;
+            }
+            if (buffer.isEmpty()) {
+                deadline = System.currentTimeMillis() + seckillProperties.getMaxLinger().toMillis();
+            }
+            buffer.addAll(list);
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            block = Duration.ofMillis(remaining);
+        }
+        return buffer;
+    }
+
+    /**
+     * 认领其他消费者空闲超过claimMinIdle的消息（通常是节点宕机或重启留下的），XPENDING + XCLAIM
+     */
+    private void claimPendingList() {
+        // 1.查询消费者组中待确认的消息
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                queueName, group, Range.unbounded(), seckillProperties.getClaimCount());
+        Duration minIdle = seckillProperties.getClaimMinIdle();
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!consumer.getName().equals(message.getConsumerName())
+                    && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                ids.add(message.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        // 2.认领到当前消费者，XCLAIM会再次校验空闲时间，避免多个消费者重复认领
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                queueName, group, consumer.getName(),
+                RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids.toArray(new RecordId[0])));
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        log.info("认领pending消息，消费者: {}, 数量: {}", consumer.getName(), records.size());
+        // 3.处理认领到的订单并确认
+        if (seckillProperties.isBatchEnabled()) {
+            processBatch(records);
+            return;
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            handleVoucherOrder(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            stringRedisTemplate.opsForStream().acknowledge(queueName, group, record.getId());
+        }
+    }
+
     private void handlePendingList() {
-        while (true) {
+        while (!Thread.currentThread().isInterrupted()) {
             try {
                 // 1.获取pending-list中的订单信息 XREADGROUP GOURP g1 c1 COUNT BLOCK 2000 STREAMS streams.order 0
                 List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"), StreamReadOptions.empty().count(1),
+                        consumer, StreamReadOptions.empty().count(1),
                         StreamOffset.create(queueName, ReadOffset.from("0"))
                 );
                 //2.1判断消息是否获取成功
@@ -129,14 +305,14 @@ private class VoucherOrderHandler implements Runnable {
                 //3成功则可以下单
                 handleVoucherOrder(voucherOrder);
                 //4ACK确认  SACK stream.order g1 id
-                stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                stringRedisTemplate.opsForStream().acknowledge(queueName,group,record.getId());
 
             } catch (Exception e) {
                 log.error("处理pending-list异常", e);
                 try {
                     Thread.sleep(20);
                 } catch (InterruptedException ex) {
-                    ex.printStackTrace();
+                    Thread.currentThread().interrupt();
                 }
             }
         }
@@ -156,11 +332,6 @@ private class VoucherOrderHandler implements Runnable {
                 }
 
                 try {
-                    // 确保proxy不为null
-                    if (proxy == null) {
-                        log.error("代理对象未初始化");
-                        return;
-                    }
                     // 使用代理对象调用事务方法
                     proxy.createVoucherOrder(voucherOrder);
                     log.info("订单创建成功，订单ID: {}", voucherOrder.getId());
@@ -234,20 +405,33 @@ private class VoucherOrderHandler implements Runnable {
 */
 @Override
 public Result seckillVoucher(Long voucherId) {
-    // 获取用户和订单Id
+    // 获取用户
     UserDTO user = UserHolder.getUser();
-    long orderId = redisIdWorker.nextId("order");
     if (user == null) {
         return Result.fail("用户未登录");
     }
+    // 本地缓存的秒杀时间段，不在时间段内的请求直接拒绝，分片库存的券只在这里判断
+    SeckillMeta meta = seckillMetaCache.get(voucherId);
+    long now = System.currentTimeMillis();
+    int window = meta.checkWindow(now);
+    if (window != 0) {
+        return Result.fail(window == 3 ? "秒杀尚未开始" : "秒杀已经结束");
+    }
+    // 本节点已知售罄，直接拒绝，不访问Redis
+    if (soldOutFlags.isSoldOut(voucherId)) {
+        return Result.fail("库存不足");
+    }
 
-    // 1.执行lua脚本
-    Long result = stringRedisTemplate.execute(
-            SECKILL_SCRIPT,
-            Collections.emptyList(),
-            voucherId.toString(),
-            user.getId().toString(),String.valueOf(orderId)
-    );
+    // 1.执行lua脚本，分片库存的券按分片依次尝试
+    long orderId = idGenerator.nextId("order");
+    Long result = meta.getShards() > 1
+            ? seckillSharded(voucherId, user.getId(), orderId, meta.getShards())
+            : stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    user.getId().toString(),String.valueOf(orderId),String.valueOf(now)
+            );
 
     if (result == null) {
         return Result.fail("秒杀失败");
@@ -255,13 +439,21 @@ public Result seckillVoucher(Long voucherId) {
 
     int r = result.intValue();
     // 2.判断结果不为0，没购买资格
+    if (r == 1) {
+        // 标记售罄并广播给其他节点
+        soldOutFlags.markSoldOut(voucherId, meta.getShards());
+        return Result.fail("库存不足");
+    }
+    if (r == 3 || r == 4) {
+        return Result.fail(r == 3 ? "秒杀尚未开始" : "秒杀已经结束");
+    }
     if (r != 0) {
-        return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+        return Result.fail("不能重复下单");
     }
 
     // 3.创建订单对象
     VoucherOrder voucherOrder = new VoucherOrder();
-    voucherOrder.setId(redisIdWorker.nextId("order"));
+    voucherOrder.setId(orderId);
     voucherOrder.setUserId(user.getId());
     voucherOrder.setVoucherId(voucherId);
 
@@ -274,18 +466,34 @@ public Result seckillVoucher(Long voucherId) {
         return Result.fail("系统繁忙，请重试");
     }  */
 
-    // 5.获取代理对象（必须在主线程中获取）
-    if (proxy == null) {
-        synchronized (this) {
-            if (proxy == null) {
-                proxy = (IVoucherOrderService) AopContext.currentProxy();
+    // 5.返回订单id
+    return Result.ok(voucherOrder.getId());
+}
+    /**
+     * 分片秒杀：下单用户统一记在主分片（用户哈希到的分片）的用户集合中，从主分片开始扣减库存，
+     * 分片库存为空时依次尝试相邻分片。每次尝试都在一次脚本调用中完成一人一单判断、扣减库存、
+     * 记录用户和发送订单消息，不会出现扣了库存却没有订单消息的情况，也不需要回滚
+     */
+    private Long seckillSharded(Long voucherId, Long userId, long orderId, int shards) {
+        int home = Math.floorMod(Long.hashCode(userId), shards);
+        String orderKey = SeckillMetaCache.orderKey(voucherId, home);
+        // 从主分片开始依次尝试
+        for (int i = 0; i < shards; i++) {
+            String stockKey = SeckillMetaCache.stockKey(voucherId, (home + i) % shards);
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_SHARD_SCRIPT,
+                    Arrays.asList(orderKey, stockKey, QUEUE_NAME),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            // 1该分片无库存，继续尝试下一个分片；0扣减成功，2重复下单，直接返回
+            if (result == null || result != 1) {
+                return result;
             }
         }
+        // 所有分片都没有库存
+        return 1L;
     }
 
-    // 6.返回订单id
-    return Result.ok(voucherOrder.getId());
-}
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
         Long userId = voucherOrder.getUserId();
@@ -321,4 +529,67 @@ public Result seckillVoucher(Long voucherId) {
             log.info("订单保存成功，订单ID: {}", voucherOrder.getId());
         }
     }
+
+    @Override
+    @Transactional
+    public void createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        // 1.批内去重，同一用户同一优惠券只保留一单
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            unique.putIfAbsent(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId(), voucherOrder);
+        }
+
+        // 2.一人一单检查，一次查询过滤已经落库的订单
+        Set<Long> userIds = unique.values().stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = unique.values().stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        List<VoucherOrder> existing = query().select("user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .list();
+        for (VoucherOrder order : existing) {
+            if (unique.remove(order.getUserId() + ":" + order.getVoucherId()) != null) {
+                log.error("用户已经下过单，用户ID: {}, 优惠券ID: {}", order.getUserId(), order.getVoucherId());
+            }
+        }
+        if (unique.isEmpty()) {
+            return;
+        }
+
+        // 3.按优惠券聚合扣减库存
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(unique.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> orders = entry.getValue();
+            if (decreaseStock(voucherId, orders.size())) {
+                toSave.addAll(orders);
+                continue;
+            }
+            // 3.1库存不够整批扣减，按剩余库存截取
+            SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+            int stock = seckillVoucher == null ? 0 : seckillVoucher.getStock();
+            int count = Math.min(stock, orders.size());
+            if (count > 0 && decreaseStock(voucherId, count)) {
+                toSave.addAll(orders.subList(0, count));
+            } else {
+                count = 0;
+            }
+            log.error("库存不足，优惠券ID: {}, 丢弃订单数: {}", voucherId, orders.size() - count);
+        }
+
+        // 4.多行INSERT保存订单
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+            log.info("批量保存订单成功，数量: {}", toSave.size());
+        }
+    }
+
+    private boolean decreaseStock(Long voucherId, int count) {
+        return seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
+    }
 }
\ No newline at end of file
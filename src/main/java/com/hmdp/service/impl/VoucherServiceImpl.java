@@ -1,18 +1,28 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillMeta;
+import com.hmdp.utils.SeckillMetaCache;
+import com.hmdp.utils.SeckillSoldOutFlags;
+import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
 
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
@@ -31,6 +41,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillMetaCache seckillMetaCache;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillSoldOutFlags soldOutFlags;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -54,6 +70,72 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucherService.save(seckillVoucher);
 
         //保存优惠券到redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY +voucher.getId(), voucher.getStock().toString());
+        Integer stock = voucher.getStock();
+        int shards = Math.max(1, Math.min(seckillProperties.getStockShards(), stock));
+        if (shards == 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY +voucher.getId(), stock.toString());
+        } else {
+            //库存平均拆到多个分片，余数分给前几个分片
+            for (int i = 0; i < shards; i++) {
+                int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+                stringRedisTemplate.opsForValue().set(SeckillMetaCache.stockKey(voucher.getId(), i), String.valueOf(shardStock));
+            }
+        }
+        //预加载秒杀时间段，供秒杀脚本和本地缓存判断
+        SeckillMeta meta = new SeckillMeta();
+        meta.setShards(shards);
+        meta.setBeginTime(toEpochMilli(voucher.getBeginTime()));
+        meta.setEndTime(toEpochMilli(voucher.getEndTime()));
+        seckillMetaCache.save(voucher.getId(), meta);
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        //1.只有配置的管理员可以补货
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !seckillProperties.getAdminUserIds().contains(user.getId())) {
+            return Result.fail("没有补货权限");
+        }
+        if (count == null || count <= 0) {
+            return Result.fail("补货数量必须大于0");
+        }
+        //2.数据库增加库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        //3.事务提交后再增加Redis库存，避免回滚后Redis多出库存
+        int shards = seckillMetaCache.get(voucherId).getShards();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                addRedisStock(voucherId, count, shards);
+            }
+        });
+        return Result.ok();
+    }
+
+    private void addRedisStock(Long voucherId, int count, int shards) {
+        //1.Redis增加库存，分片库存平均加到各个分片
+        if (shards == 1) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, count);
+        } else {
+            for (int i = 0; i < shards; i++) {
+                int shardCount = count / shards + (i < count % shards ? 1 : 0);
+                if (shardCount > 0) {
+                    stringRedisTemplate.opsForValue().increment(SeckillMetaCache.stockKey(voucherId, i), shardCount);
+                }
+            }
+        }
+        //2.库存增加之后再清除各节点的售罄标记，之后的售罄广播都会先检查到新库存
+        soldOutFlags.clear(voucherId);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time == null ? 0 : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
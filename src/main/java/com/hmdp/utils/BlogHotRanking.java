@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.BlogHotProperties;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+
+/**
+ * 热门笔记排行榜，blog:hot 中保存每篇笔记的热度。
+ * 热度按半衰期指数衰减：点赞、评论、发布时增加 weight * 2^((now - epoch) / halfLife)，取消点赞按点赞时间扣除，
+ * 越晚发生的行为分数越高，相当于之前的分数都衰减了，不需要定时修改每篇笔记的分数；
+ * 定时任务把基准时间epoch移动到当前时间并等比缩小所有分数，同时裁剪排行榜长度
+ */
+@Slf4j
+@Component
+public class BlogHotRanking implements ApplicationRunner {
+    private static final String LOCK_KEY = "lock:blog:hot";
+    private static final int SEED_PAGE_SIZE = 500;
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("blog_hot_incr.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> RESCALE_SCRIPT;
+    static {
+        RESCALE_SCRIPT = new DefaultRedisScript<>();
+        RESCALE_SCRIPT.setLocation(new ClassPathResource("blog_hot_rescale.lua"));
+        RESCALE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private BlogHotProperties properties;
+
+    public void onPost(Long blogId) {
+        incr(blogId, properties.getPostWeight(), System.currentTimeMillis());
+    }
+
+    public void onLike(Long blogId) {
+        incr(blogId, properties.getLikeWeight(), System.currentTimeMillis());
+    }
+
+    /**
+     * 取消点赞，按当初的点赞时间扣除热度，和点赞时加上的分数抵消
+     * @param likedAt 点赞时间
+     */
+    public void onUnlike(Long blogId, long likedAt) {
+        incr(blogId, -properties.getLikeWeight(), likedAt);
+    }
+
+    public void onComment(Long blogId) {
+        incr(blogId, properties.getCommentWeight(), System.currentTimeMillis());
+    }
+
+    /**
+     * 按热度倒序分页查询笔记id
+     * @param current 页码，从1开始
+     */
+    public List<Long> page(int current, int pageSize) {
+        long start = (long) (current - 1) * pageSize;
+        Set<String> ids = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + pageSize - 1);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * @return 排行榜是否已经初始化
+     */
+    public boolean isReady() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(BLOG_HOT_KEY);
+        return size != null && size > 0;
+    }
+
+    /**
+     * 启动时排行榜为空则从最近的笔记初始化
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!isReady()) {
+                seed();
+            }
+        } catch (Exception e) {
+            log.error("初始化热门笔记排行榜失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 定时移动基准时间并裁剪排行榜
+     */
+    @Scheduled(cron = "${hmdp.blog.hot.rescale-cron:0 0 * * * ?}")
+    public void rescale() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Long size = stringRedisTemplate.execute(RESCALE_SCRIPT,
+                    Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(properties.getHalfLife().toMillis()),
+                    String.valueOf(properties.getMaxSize()));
+            log.debug("热门笔记排行榜衰减完成，笔记数: {}", size);
+        } catch (Exception e) {
+            log.error("热门笔记排行榜衰减失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void incr(Long blogId, double weight, long at) {
+        try {
+            stringRedisTemplate.execute(INCR_SCRIPT,
+                    Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY),
+                    blogId.toString(), String.valueOf(weight),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(properties.getHalfLife().toMillis()),
+                    String.valueOf(at));
+        } catch (Exception e) {
+            //热度只影响排序，更新失败不影响点赞、评论本身
+            log.warn("更新笔记热度失败，blogId: {}", blogId, e);
+        }
+    }
+
+    /**
+     * 按id游标读取最近seedDays天的笔记，以发布时间计算热度后批量写入
+     */
+    private void seed() {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.opsForValue().set(BLOG_HOT_EPOCH_KEY, String.valueOf(now));
+        double halfLife = properties.getHalfLife().toMillis();
+        LocalDateTime since = LocalDateTime.now().minusDays(properties.getSeedDays());
+        long lastId = 0;
+        long total = 0;
+        List<Blog> blogs;
+        while (!(blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                .select("id", "liked", "comments", "create_time")
+                .ge("create_time", since).gt("id", lastId)
+                .orderByAsc("id").last("limit " + SEED_PAGE_SIZE))).isEmpty()) {
+            List<Blog> page = blogs;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Blog blog : page) {
+                    long createdAt = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    double weight = properties.getPostWeight()
+                            + properties.getLikeWeight() * (blog.getLiked() == null ? 0 : blog.getLiked())
+                            + properties.getCommentWeight() * (blog.getComments() == null ? 0 : blog.getComments());
+                    double score = weight * Math.pow(2, (createdAt - now) / halfLife);
+                    connection.zSetCommands().zAdd(StrUtil.utf8Bytes(BLOG_HOT_KEY), score,
+                            StrUtil.utf8Bytes(blog.getId().toString()));
+                }
+                return null;
+            });
+            lastId = blogs.get(blogs.size() - 1).getId();
+            total += blogs.size();
+        }
+        //只保留热度最高的部分
+        stringRedisTemplate.opsForZSet().removeRange(BLOG_HOT_KEY, 0, -(properties.getMaxSize() + 1));
+        log.info("热门笔记排行榜初始化完成，笔记数: {}", total);
+    }
+}
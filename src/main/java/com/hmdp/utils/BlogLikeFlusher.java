@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKES_BATCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKES_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKES_FLUSHING_KEY;
+
+/**
+ * 点赞数异步写回：点赞时只在Redis的hash中累加增量，定时把增量批量写回tb_blog。
+ * 写回前把增量hash改名为flushing，之后的点赞写入新的增量hash，互不影响；
+ * 每批先用Lua把字段从flushing移到带批次号的batch中，再在一个事务里写入批次号和更新点赞数，最后删除batch。
+ * UPDATE之后、删除batch之前失败时，下次重新处理同一批次会因批次号已存在而跳过，不会重复累加
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+    private static final String FLUSH_LOCK_KEY = "lock:blog:likes:flush";
+    private static final int BATCH_SIZE = 500;
+    private static final String FLUSH_ID_FIELD = "flushId";
+
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("blog_like_claim.lua"));
+        CLAIM_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private IdGenerator idGenerator;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-interval:5000}")
+    public void flush() {
+        RLock lock = redissonClient.getLock(FLUSH_LOCK_KEY);
+        if (!lock.tryLock()) {
+            //其他节点正在写回
+            return;
+        }
+        try {
+            //1.上次没处理完的批次先处理
+            flushClaimedBatch();
+            //2.上次没写完的先处理，否则把当前增量改名，开始新一轮累加
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKES_FLUSHING_KEY))) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKES_DELTA_KEY))) {
+                    return;
+                }
+                stringRedisTemplate.rename(BLOG_LIKES_DELTA_KEY, BLOG_LIKES_FLUSHING_KEY);
+            }
+            //3.按批次取出要写回的笔记并写回
+            Set<Object> fields = stringRedisTemplate.opsForHash().keys(BLOG_LIKES_FLUSHING_KEY);
+            List<String> blogIds = new ArrayList<>(BATCH_SIZE);
+            for (Object field : fields) {
+                blogIds.add(field.toString());
+                if (blogIds.size() >= BATCH_SIZE) {
+                    claimAndFlush(blogIds);
+                    blogIds = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!blogIds.isEmpty()) {
+                claimAndFlush(blogIds);
+            }
+            log.debug("点赞数写回完成，笔记数: {}", fields.size());
+        } catch (Exception e) {
+            log.error("点赞数写回失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清除一天前的写回批次记录，此前的批次都已经删除，不会再重新处理
+     */
+    @Scheduled(cron = "0 0 * * * ?")
+    public void purgeFlushLog() {
+        blogMapper.deleteLikeFlushBefore(LocalDateTime.now().minusDays(1));
+    }
+
+    /**
+     * 查询还没有写回数据库的点赞数增量，包括正在写回的部分
+     * @return 笔记id -> 增量，没有增量的笔记不在结果中
+     */
+    public Map<Long, Long> pendingDeltas(List<Long> blogIds) {
+        Map<Long, Long> deltas = new HashMap<>();
+        if (blogIds.isEmpty()) {
+            return deltas;
+        }
+        byte[][] fields = blogIds.stream().map(id -> StrUtil.utf8Bytes(id.toString())).toArray(byte[][]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMGet(StrUtil.utf8Bytes(BLOG_LIKES_DELTA_KEY), fields);
+            connection.hashCommands().hMGet(StrUtil.utf8Bytes(BLOG_LIKES_FLUSHING_KEY), fields);
+            connection.hashCommands().hMGet(StrUtil.utf8Bytes(BLOG_LIKES_BATCH_KEY), fields);
+            return null;
+        });
+        for (Object result : results) {
+            List<?> values = (List<?>) result;
+            for (int i = 0; i < blogIds.size(); i++) {
+                Object value = values.get(i);
+                if (value != null) {
+                    deltas.merge(blogIds.get(i), Long.parseLong(value.toString()), Long::sum);
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * 把一批笔记从flushing移到batch并写回，增量都为0时不产生批次
+     */
+    private void claimAndFlush(List<String> blogIds) {
+        List<String> args = new ArrayList<>(blogIds.size() + 1);
+        args.add(String.valueOf(idGenerator.nextId("likeflush")));
+        args.addAll(blogIds);
+        Long claimed = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                Arrays.asList(BLOG_LIKES_FLUSHING_KEY, BLOG_LIKES_BATCH_KEY), args.toArray());
+        if (claimed != null && claimed > 0) {
+            flushClaimedBatch();
+        }
+    }
+
+    /**
+     * 写回batch中的增量：批次号和点赞数在同一个事务中写入，批次号已存在说明上次已经写回，只需删除batch
+     */
+    private void flushClaimedBatch() {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKES_BATCH_KEY);
+        if (entries.isEmpty()) {
+            return;
+        }
+        Long flushId = Long.valueOf(entries.remove(FLUSH_ID_FIELD).toString());
+        Map<Long, Long> deltas = new LinkedHashMap<>();
+        entries.forEach((field, value) -> deltas.put(Long.valueOf(field.toString()), Long.valueOf(value.toString())));
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                blogMapper.insertLikeFlush(flushId);
+            } catch (DuplicateKeyException e) {
+                log.info("点赞数批次已经写回过，跳过，flushId: {}", flushId);
+                return;
+            }
+            blogMapper.updateLikedBatch(deltas);
+        });
+        stringRedisTemplate.delete(BLOG_LIKES_BATCH_KEY);
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 限制本节点同时处理该接口的请求数，超过时立即拒绝而不是排队等待，
+ * 避免一个接口占满Tomcat线程和Redis连接池，由BulkheadInterceptor检查
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkhead {
+    /**
+     * 最大并发数
+     */
+    int value();
+
+    /**
+     * 被拒绝时返回的提示
+     */
+    String message() default "系统繁忙，请稍后再试";
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 按@Bulkhead限制接口并发：进入controller前获取许可，拿不到立即拒绝，请求结束后归还
+ */
+public class BulkheadInterceptor implements HandlerInterceptor {
+    private static final String PERMIT_ATTRIBUTE = BulkheadInterceptor.class.getName() + ".permit";
+
+    /**
+     * 每个controller方法一个信号量
+     */
+    private final Map<Method, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        Method method = ((HandlerMethod) handler).getMethod();
+        Bulkhead bulkhead = method.getAnnotation(Bulkhead.class);
+        if (bulkhead == null) {
+            return true;
+        }
+        Semaphore semaphore = semaphores.computeIfAbsent(method, m -> new Semaphore(bulkhead.value()));
+        if (!semaphore.tryAcquire()) {
+            throw new RateLimitException(bulkhead.message());
+        }
+        //记录在请求中，afterCompletion时归还
+        request.setAttribute(PERMIT_ATTRIBUTE, semaphore);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+        Object semaphore = request.getAttribute(PERMIT_ATTRIBUTE);
+        if (semaphore != null) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            ((Semaphore) semaphore).release();
+        }
+    }
+}
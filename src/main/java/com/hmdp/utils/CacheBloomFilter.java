@@ -0,0 +1,362 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.config.BloomFilterProperties;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * 基于Redis bitmap的布隆过滤器，防止用不存在的id穿透缓存打到数据库。
+ * 每个缓存key前缀对应一张表的id，启动时按id游标分页写入，新增数据时同步写入，定时整体重建以清除已删除的id。
+ * 重建时写入一个带版本号的新bitmap，完成后切换当前版本，旧bitmap延迟删除；
+ * 过滤器未就绪或者Redis异常时一律放行，由空值缓存兜底。
+ * 新增数据写入过滤器重试后仍然失败时记录失败时间（本地和Redis各一份），
+ * 在此之后开始重建的过滤器生效前一律放行，避免新数据被误判为不存在，并尽快触发重建
+ */
+@Slf4j
+@Component
+public class CacheBloomFilter implements ApplicationRunner {
+    private static final String BLOOM_KEY_PREFIX = "bloom:";
+    private static final String CURRENT_SUFFIX = "current";
+    private static final String BUILDING_SUFFIX = "building";
+    private static final String DIRTY_SUFFIX = "dirty";
+    private static final int ADD_ATTEMPTS = 3;
+    private static final String REBUILD_LOCK_PREFIX = "lock:bloom:";
+    /**
+     * Redis字符串最大512MB
+     */
+    private static final long MAX_BITS = 1L << 32;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private BloomFilterProperties properties;
+
+    private final Map<String, Guard> guards = new ConcurrentHashMap<>();
+    /**
+     * 被过滤器拦截的查询次数
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * 为一个缓存key前缀注册布隆过滤器，id取自对应表的id列
+     */
+    public <T> void register(String keyPrefix, IService<T> service) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Function<Long, List<Long>> idPager = lastId -> service.listObjs(
+                new QueryWrapper<T>().select("id").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + properties.getPageSize()),
+                id -> ((Number) id).longValue());
+        guards.put(keyPrefix, new Guard(keyPrefix, () -> service.count(), idPager));
+    }
+
+    /**
+     * @return false表示id一定不存在；没有注册过滤器、过滤器未就绪或者访问异常时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        Guard guard = guards.get(keyPrefix);
+        if (guard == null || id == null) {
+            return true;
+        }
+        Filter filter = currentFilter(guard);
+        if (filter == null || guard.isDirty()) {
+            return true;
+        }
+        try {
+            List<Long> bits = stringRedisTemplate.opsForValue()
+                    .bitField(filter.getKey(), filter.getCommands(id.toString()));
+            if (bits == null || !bits.contains(0L)) {
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("查询布隆过滤器失败，key: {}", filter.getKey(), e);
+            return true;
+        }
+        rejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * 新增数据后调用，写入当前过滤器；正在重建时同时写入新过滤器，避免切换后漏掉。
+     * 重试后仍然失败时标记过滤器失效，重建完成前不再拦截
+     */
+    public void add(String keyPrefix, Object id) {
+        Guard guard = guards.get(keyPrefix);
+        if (guard == null || id == null) {
+            return;
+        }
+        for (int attempt = 1; attempt <= ADD_ATTEMPTS; attempt++) {
+            try {
+                List<String> filters = stringRedisTemplate.opsForValue()
+                        .multiGet(Arrays.asList(guard.currentKey, guard.buildingKey));
+                if (filters == null) {
+                    return;
+                }
+                for (String json : filters) {
+                    if (StrUtil.isNotBlank(json)) {
+                        Filter filter = JSONUtil.toBean(json, Filter.class);
+                        stringRedisTemplate.opsForValue().bitField(filter.getKey(), filter.setCommands(id.toString()));
+                    }
+                }
+                return;
+            } catch (Exception e) {
+                log.warn("写入布隆过滤器失败，keyPrefix: {}, id: {}, 第{}次", keyPrefix, id, attempt, e);
+            }
+        }
+        markDirty(guard);
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 启动时加载过滤器，Redis中还没有时进行初始化
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        for (Guard guard : guards.values()) {
+            refresh(guard);
+            if (guard.current == null) {
+                rebuild(guard);
+            }
+        }
+    }
+
+    /**
+     * 定时重建，多个节点只会有一个执行
+     */
+    @Scheduled(cron = "${hmdp.bloom.rebuild-cron:0 0 4 * * ?}")
+    public void rebuildAll() {
+        guards.values().forEach(this::rebuild);
+    }
+
+    /**
+     * 有写入失败的过滤器尽快重建，不等每天的定时重建
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void rebuildDirty() {
+        for (Guard guard : guards.values()) {
+            try {
+                //其他节点可能已经重建完成
+                refresh(guard);
+            } catch (Exception e) {
+                log.warn("刷新布隆过滤器失败，keyPrefix: {}", guard.keyPrefix, e);
+                continue;
+            }
+            if (guard.isDirty()) {
+                rebuild(guard);
+            }
+        }
+    }
+
+    /**
+     * 记录写入失败的时间，本节点立即生效，写入Redis后其他节点刷新时生效
+     */
+    private void markDirty(Guard guard) {
+        long now = System.currentTimeMillis();
+        guard.dirtySince = Math.max(guard.dirtySince, now);
+        log.error("布隆过滤器写入失败，重建完成前不再拦截，keyPrefix: {}", guard.keyPrefix);
+        try {
+            stringRedisTemplate.opsForValue().set(guard.dirtyKey, String.valueOf(now));
+        } catch (Exception e) {
+            log.warn("记录布隆过滤器失效失败，keyPrefix: {}", guard.keyPrefix, e);
+        }
+    }
+
+    private Filter currentFilter(Guard guard) {
+        long now = System.currentTimeMillis();
+        if (now - guard.refreshedAt >= properties.getRefreshInterval().toMillis()) {
+            //其他节点可能已经重建并切换了过滤器，定期重新读取
+            guard.refreshedAt = now;
+            try {
+                refresh(guard);
+            } catch (Exception e) {
+                log.warn("刷新布隆过滤器失败，keyPrefix: {}", guard.keyPrefix, e);
+            }
+        }
+        return guard.current;
+    }
+
+    private void refresh(Guard guard) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(Arrays.asList(guard.currentKey, guard.dirtyKey));
+        String json = values == null ? null : values.get(0);
+        String dirty = values == null ? null : values.get(1);
+        guard.current = StrUtil.isBlank(json) ? null : JSONUtil.toBean(json, Filter.class);
+        if (StrUtil.isNotBlank(dirty)) {
+            guard.dirtySince = Math.max(guard.dirtySince, Long.parseLong(dirty));
+        }
+        guard.refreshedAt = System.currentTimeMillis();
+    }
+
+    private void rebuild(Guard guard) {
+        RLock lock = redissonClient.getLock(REBUILD_LOCK_PREFIX + guard.keyPrefix);
+        if (!lock.tryLock()) {
+            log.info("其他节点正在重建布隆过滤器，keyPrefix: {}", guard.keyPrefix);
+            return;
+        }
+        Filter filter = null;
+        try {
+            //1.按表中记录数确定容量，创建带版本号的新过滤器
+            long expected = Math.max(properties.getMinExpectedInsertions(),
+                    (long) (guard.counter.getAsLong() * properties.getExpectedInsertionsFactor()));
+            //开始时间之前写入失败的id都会从数据库重新写入
+            long createdAt = System.currentTimeMillis();
+            filter = Filter.create(BLOOM_KEY_PREFIX + guard.keyPrefix + createdAt,
+                    expected, properties.getFalseProbability());
+            filter.setCreatedAt(createdAt);
+            //2.先登记为正在重建，此后新增的数据会同时写入新过滤器
+            stringRedisTemplate.opsForValue().set(guard.buildingKey, JSONUtil.toJsonStr(filter));
+            //3.按id游标分页，每页用管道批量写入
+            long lastId = 0;
+            long total = 0;
+            List<Long> ids;
+            while (!(ids = guard.idPager.apply(lastId)).isEmpty()) {
+                writeIds(filter, ids);
+                lastId = ids.get(ids.size() - 1);
+                total += ids.size();
+            }
+            //4.切换为当前过滤器，旧过滤器保留一段时间供还没刷新的节点使用
+            String old = stringRedisTemplate.opsForValue().get(guard.currentKey);
+            stringRedisTemplate.opsForValue().set(guard.currentKey, JSONUtil.toJsonStr(filter));
+            stringRedisTemplate.delete(guard.buildingKey);
+            if (StrUtil.isNotBlank(old)) {
+                stringRedisTemplate.expire(JSONUtil.toBean(old, Filter.class).getKey(),
+                        properties.getRetiredTtl().getSeconds(), TimeUnit.SECONDS);
+            }
+            guard.current = filter;
+            guard.refreshedAt = System.currentTimeMillis();
+            log.info("布隆过滤器重建完成，keyPrefix: {}, 元素数: {}, bit数: {}, 哈希函数数: {}",
+                    guard.keyPrefix, total, filter.getBits(), filter.getHashes());
+        } catch (Exception e) {
+            log.error("布隆过滤器重建失败，keyPrefix: {}", guard.keyPrefix, e);
+            stringRedisTemplate.delete(guard.buildingKey);
+            if (filter != null) {
+                stringRedisTemplate.delete(filter.getKey());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeIds(Filter filter, List<Long> ids) {
+        byte[] key = StrUtil.utf8Bytes(filter.getKey());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long id : ids) {
+                for (long offset : filter.offsets(id.toString())) {
+                    connection.setBit(key, offset, true);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static class Guard {
+        private final String keyPrefix;
+        private final String currentKey;
+        private final String buildingKey;
+        private final String dirtyKey;
+        private final LongSupplier counter;
+        private final Function<Long, List<Long>> idPager;
+        private volatile Filter current;
+        private volatile long refreshedAt;
+        /**
+         * 最近一次写入失败的时间，0表示没有失败过
+         */
+        private volatile long dirtySince;
+
+        Guard(String keyPrefix, LongSupplier counter, Function<Long, List<Long>> idPager) {
+            this.keyPrefix = keyPrefix;
+            this.currentKey = BLOOM_KEY_PREFIX + keyPrefix + CURRENT_SUFFIX;
+            this.buildingKey = BLOOM_KEY_PREFIX + keyPrefix + BUILDING_SUFFIX;
+            this.dirtyKey = BLOOM_KEY_PREFIX + keyPrefix + DIRTY_SUFFIX;
+            this.counter = counter;
+            this.idPager = idPager;
+        }
+
+        /**
+         * 写入失败之后还没有开始过重建，当前过滤器可能缺少新数据
+         */
+        boolean isDirty() {
+            Filter filter = current;
+            return dirtySince > 0 && (filter == null || filter.getCreatedAt() <= dirtySince);
+        }
+    }
+
+    /**
+     * 一个版本的过滤器：bitmap的key、bit数、哈希函数个数和开始重建的时间，以JSON保存在Redis中供各节点共享
+     */
+    @Data
+    public static class Filter {
+        private String key;
+        private long bits;
+        private int hashes;
+        private long createdAt;
+
+        static Filter create(String key, long expectedInsertions, double falseProbability) {
+            double ln2 = Math.log(2);
+            long bits = (long) Math.ceil(-expectedInsertions * Math.log(falseProbability) / (ln2 * ln2));
+            bits = Math.min(Math.max(bits, 64), MAX_BITS);
+            Filter filter = new Filter();
+            filter.setKey(key);
+            filter.setBits(bits);
+            filter.setHashes(Math.max(1, (int) Math.round((double) bits / expectedInsertions * ln2)));
+            return filter;
+        }
+
+        /**
+         * 用128位MurmurHash的两个64位结果做双重哈希，得到hashes个bit位置
+         */
+        long[] offsets(String value) {
+            long[] hash = MurmurHash.hash128(StrUtil.utf8Bytes(value));
+            long[] offsets = new long[hashes];
+            for (int i = 0; i < hashes; i++) {
+                offsets[i] = ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bits;
+            }
+            return offsets;
+        }
+
+        BitFieldSubCommands getCommands(String value) {
+            BitFieldSubCommands commands = BitFieldSubCommands.create();
+            for (long offset : offsets(value)) {
+                commands = commands.get(BitFieldSubCommands.BitFieldType.unsigned(1)).valueAt(offset);
+            }
+            return commands;
+        }
+
+        BitFieldSubCommands setCommands(String value) {
+            BitFieldSubCommands commands = BitFieldSubCommands.create();
+            for (long offset : offsets(value)) {
+                commands = commands.set(BitFieldSubCommands.BitFieldType.unsigned(1)).valueAt(offset).to(1);
+            }
+            return commands;
+        }
+    }
+}
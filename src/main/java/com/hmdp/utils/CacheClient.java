@@ -1,42 +1,141 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import static com.hmdp.utils.RedisConstants.*;
 
 @Slf4j
 @Component
 public class CacheClient {
     private StringRedisTemplate stringRedisTemplate;
+    /**
+     * 缓存值统一按字节读写，编码方式由cacheCodec决定
+     */
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+    private CacheCodec cacheCodec;
+    private LocalCache localCache;
+    private CacheBloomFilter bloomFilter;
+    private HotKeyDetector hotKeyDetector;
+    /**
+     * 等待互斥锁时的重试次数和间隔
+     */
+    private static final int MUTEX_RETRY_TIMES = 20;
+    private static final long MUTEX_RETRY_INTERVAL_MILLIS = 50;
+    /**
+     * 正在加载中的key，同一个key的并发未命中共享同一个future
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+    /**
+     * 被合并（没有自己查库）的调用次数
+     */
+    private final LongAdder coalescedCount = new LongAdder();
+    /**
+     * 逻辑过期后返回旧数据、开始重建、重建失败、重建任务被拒绝的次数
+     */
+    private final LongAdder staleServedCount = new LongAdder();
+    private final LongAdder rebuildStartedCount = new LongAdder();
+    private final LongAdder rebuildFailedCount = new LongAdder();
+    private final LongAdder rebuildRejectedCount = new LongAdder();
+    /**
+     * 缓存重建线程池参数
+     */
+    private static final int REBUILD_CORE_THREADS = 4;
+    private static final int REBUILD_MAX_THREADS = 10;
+    private static final int REBUILD_QUEUE_CAPACITY = 200;
+    /**
+     * 逻辑过期时间的最大随机抖动为有效期的1/10
+     */
+    private static final long EXPIRE_JITTER_DIVISOR = 10;
+    private static final String LOCK_KEY_PREFIX = "lock:";
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> cacheRedisTemplate,
+                       CacheCodec cacheCodec, LocalCache localCache, CacheBloomFilter bloomFilter,
+                       HotKeyDetector hotKeyDetector) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRedisTemplate = cacheRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.localCache = localCache;
+        this.bloomFilter = bloomFilter;
+        this.hotKeyDetector = hotKeyDetector;
     }
 
     //写入Redis
     public void set(String key, Object value, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encode(value), time, timeUnit);
     }
 
     //设置逻辑过期并写入Redis
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(timeUnit.toSeconds(time))));
+        //在逻辑过期时间上增加随机抖动，避免同时写入的key同时过期、集中重建
+        long ttlMillis = timeUnit.toMillis(time);
+        long jitterMillis = ttlMillis > 0 ? RandomUtil.randomLong(ttlMillis / EXPIRE_JITTER_DIVISOR + 1) : 0;
+        LocalDateTime expireTime = LocalDateTime.now().plus(ttlMillis + jitterMillis, ChronoUnit.MILLIS);
         //写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
-        String s = stringRedisTemplate.opsForValue().get(key);
-        log.debug(s);
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encodeWithExpire(value, expireTime));
+    }
+
+    /**
+     * 批量设置逻辑过期并用管道写入Redis，用于预热
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit timeUnit) {
+        long ttlMillis = timeUnit.toMillis(time);
+        LocalDateTime now = LocalDateTime.now();
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                long jitterMillis = ttlMillis > 0 ? RandomUtil.randomLong(ttlMillis / EXPIRE_JITTER_DIVISOR + 1) : 0;
+                LocalDateTime expireTime = now.plus(ttlMillis + jitterMillis, ChronoUnit.MILLIS);
+                connection.stringCommands().set(StrUtil.utf8Bytes(key), cacheCodec.encodeWithExpire(value, expireTime));
+            });
+            return null;
+        });
+    }
+
+    //删除缓存，同时失效所有节点的本地缓存
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.evict(key);
     }
 
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id,
@@ -44,21 +143,208 @@ public class CacheClient {
                                           Long time, TimeUnit timeUnit) {
         String key = keyPrefix + id;
         log.debug("查询缓存，key: {}", key);
+        boolean hot = hotKeyDetector.record(key);
+
+        //先查本地缓存
+        Object local = localCache.get(key);
+        if (type.isInstance(local)) {
+            return type.cast(local);
+        }
+        //布隆过滤器判断id一定不存在时，Redis和数据库都不用查
+        if (!bloomFilter.mightContain(keyPrefix, id)) {
+            log.debug("布隆过滤器拦截，key: {}", key);
+            return null;
+        }
 
-        String json = stringRedisTemplate.opsForValue().get(key);
-        log.debug("缓存结果: {}", json);
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
 
-        if (StrUtil.isNotBlank(json)) {
+        if (bytes != null && bytes.length > 0) {
             log.debug("命中有效缓存");
-            return JSONUtil.toBean(json, type);
+            R r = cacheCodec.decode(bytes, type);
+            localCache.put(key, r);
+            if (hot) {
+                //热点key固定在本地缓存，短时间内不再访问Redis
+                localCache.pin(key, r);
+            }
+            return r;
         }
 
-        if ("".equals(json)) {
+        if (bytes != null) {
             log.debug("命中空值缓存");
             return null;
         }
 
         log.debug("缓存未命中，查询数据库");
+        //同一个key的并发未命中只由一个线程加载，其余线程等待它的结果
+        return singleFlight(key, () -> loadWithMutex(key, id, type, dbFallBack, time, timeUnit));
+    }
+
+    /**
+     * 查询缓存的列表，例如全部店铺类型，未命中时查库并写入缓存
+     */
+    public <R> List<R> queryList(String key, Class<R> elementType, Supplier<List<R>> dbFallBack,
+                                 Long time, TimeUnit timeUnit) {
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        if (bytes != null && bytes.length > 0) {
+            return cacheCodec.decodeList(bytes, elementType);
+        }
+        List<R> list = dbFallBack.get();
+        if (list != null && !list.isEmpty()) {
+            this.set(key, list, time, timeUnit);
+        }
+        return list;
+    }
+
+    /**
+     * 批量查询缓存：一次MGET查Redis，未命中的id一次性交给dbBatchFallBack查库，再用管道批量写回Redis
+     * @return 与ids顺序一致的结果，不存在的id对应位置为null
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type,
+                                      Function<List<ID>, Map<ID, R>> dbBatchFallBack,
+                                      Long time, TimeUnit timeUnit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        //1.先查本地缓存
+        Set<ID> remoteIdSet = new LinkedHashSet<>();
+        for (ID id : ids) {
+            hotKeyDetector.record(keyPrefix + id);
+            Object local = localCache.get(keyPrefix + id);
+            if (type.isInstance(local)) {
+                found.put(id, type.cast(local));
+            } else {
+                remoteIdSet.add(id);
+            }
+        }
+        //2.一次MGET查询Redis，重复的id只查一次
+        List<ID> remoteIds = new ArrayList<>(remoteIdSet);
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    missIds.add(remoteIds.get(i));
+                } else if (bytes.length > 0) {
+                    R r = cacheCodec.decode(bytes, type);
+                    localCache.put(keys.get(i), r);
+                    if (hotKeyDetector.isHot(keys.get(i))) {
+                        localCache.pin(keys.get(i), r);
+                    }
+                    found.put(remoteIds.get(i), r);
+                }
+                //空值缓存，不再查库
+            }
+        }
+        //3.未命中的id一次查库，并用管道写回Redis，不存在的id写入空值
+        if (!missIds.isEmpty()) {
+            log.debug("批量查询缓存未命中{}个，查询数据库", missIds.size());
+            Map<ID, R> loaded = dbBatchFallBack.apply(missIds);
+            found.putAll(loaded);
+            cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    R r = loaded.get(id);
+                    byte[] key = StrUtil.utf8Bytes(keyPrefix + id);
+                    if (r == null) {
+                        connection.stringCommands().set(key, new byte[0],
+                                Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.upsert());
+                    } else {
+                        connection.stringCommands().set(key, cacheCodec.encode(r),
+                                Expiration.from(time, timeUnit), RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            loaded.forEach((id, r) -> localCache.put(keyPrefix + id, r));
+        }
+        //4.按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * 本节点内合并同一个key的并发加载：第一个线程执行loader，其余线程共享同一个future的结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalescedCount.increment();
+            log.debug("合并并发加载，key: {}", key);
+            try {
+                return (R) inFlight.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取分布式互斥锁后查询数据库并写入缓存，保证多个节点也只有一个在查库；
+     * 没拿到锁说明其他节点正在重建，等待后重新查询Redis
+     */
+    private <R, ID> R loadWithMutex(String key, ID id, Class<R> type,
+                                    Function<ID, R> dbFallBack, Long time, TimeUnit timeUnit) {
+        String lockKey = lockKeyOf(key);
+        for (int i = 0; i < MUTEX_RETRY_TIMES; i++) {
+            String token = tryLock(lockKey);
+            if (token != null) {
+                try {
+                    //拿到锁后再查一次Redis，可能其他节点刚刚重建完
+                    byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+                    if (bytes != null) {
+                        return cachedValue(key, bytes, type);
+                    }
+                    return loadFromDb(key, id, type, dbFallBack, time, timeUnit);
+                } finally {
+                    unlock(lockKey, token);
+                }
+            }
+            try {
+                Thread.sleep(MUTEX_RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return cachedValue(key, bytes, type);
+            }
+        }
+        //一直没有等到其他节点的重建结果，直接查询数据库兜底
+        log.debug("等待互斥锁超时，直接查询数据库，key: {}", key);
+        return loadFromDb(key, id, type, dbFallBack, time, timeUnit);
+    }
+
+    private <R> R cachedValue(String key, byte[] bytes, Class<R> type) {
+        if (bytes.length == 0) {
+            //空值缓存
+            return null;
+        }
+        R r = cacheCodec.decode(bytes, type);
+        localCache.put(key, r);
+        return r;
+    }
+
+    private <R, ID> R loadFromDb(String key, ID id, Class<R> type,
+                                 Function<ID, R> dbFallBack, Long time, TimeUnit timeUnit) {
         R r = dbFallBack.apply(id);
 
         if (r == null) {
@@ -69,67 +355,146 @@ public class CacheClient {
 
         log.debug("数据库查询成功，写入缓存");
         this.set(key, r, time, timeUnit);
+        localCache.put(key, r);
         return r;
     }
 
+    /**
+     * 缓存客户端的统计数据
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("coalesced", coalescedCount.sum());
+        stats.put("bloomRejected", bloomFilter.getRejectedCount());
+        stats.put("staleServed", staleServedCount.sum());
+        stats.put("rebuildStarted", rebuildStartedCount.sum());
+        stats.put("rebuildFailed", rebuildFailedCount.sum());
+        stats.put("rebuildRejected", rebuildRejectedCount.sum());
+        stats.put("rebuildQueued", (long) cacheRebuildExecutor.getQueue().size());
+        stats.put("inFlight", (long) inFlightLoads.size());
+        return stats;
+    }
+
 
-    //线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 缓存重建线程池，队列有界，队列满时拒绝并由调用方释放锁，下次访问再尝试重建
+     */
+    private final ThreadPoolExecutor cacheRebuildExecutor = new ThreadPoolExecutor(
+            REBUILD_CORE_THREADS, REBUILD_MAX_THREADS, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(REBUILD_QUEUE_CAPACITY),
+            new NamedThreadFactory("cache-rebuild-", true),
+            new ThreadPoolExecutor.AbortPolicy());
 
-    //利用逻辑过期解决缓存击穿
+    @PreDestroy
+    public void shutdown() {
+        cacheRebuildExecutor.shutdown();
+    }
+
+    //利用逻辑过期解决缓存击穿，未命中时不查数据库，不需要经过布隆过滤器，由调用方回退到queryWithPassThrough时再判断
     public <R,ID> R queryWithLogicalExpire(String keyPrefix,ID id,Class<R> type,
                                            Function<ID, R> dbFallBack,Long time, TimeUnit timeUnit){
         String key= keyPrefix + id;
+        boolean hot = hotKeyDetector.record(key);
+        //0.先查本地缓存，逻辑未过期直接返回
+        Object local = localCache.get(key);
+        if (local instanceof RedisData) {
+            RedisData localData = (RedisData) local;
+            if (type.isInstance(localData.getData()) && localData.getExpireTime().isAfter(LocalDateTime.now())) {
+                return type.cast(localData.getData());
+            }
+        }
         //1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
         //2.判断是否命中
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             //3.未命中。返回空
             return null;
         }
-        //4.命中需要反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject)redisData.getData(), type);
+        //4.命中需要反序列化为对象，不是逻辑过期格式（例如由queryWithPassThrough写入）时按未命中处理
+        RedisData redisData = cacheCodec.decodeWithExpire(bytes, type);
+        if (redisData == null) {
+            return null;
+        }
+        R r = type.cast(redisData.getData());
         //5.判断是否过期
         LocalDateTime expireTime = redisData.getExpireTime();
         if (expireTime.isAfter(LocalDateTime.now())) {
-            //5.1未过期，直接返回店铺信息
+            //5.1未过期，放入本地缓存后直接返回店铺信息
+            RedisData localData = new RedisData();
+            localData.setData(r);
+            localData.setExpireTime(expireTime);
+            localCache.put(key, localData);
+            if (hot) {
+                localCache.pin(key, localData);
+            }
             return r;
         }
-        //5.2已过期，需要缓存重建
+        //5.2已过期，需要缓存重建，当前请求先返回旧数据
+        staleServedCount.increment();
         //6.缓存重建
         //6.1获取互斥锁
-        String lockKey= LOCK_SHOP_KEY+id;
-        boolean isLock = tryLock(lockKey);
+        String lockKey = lockKeyOf(key);
+        String token = tryLock(lockKey);
         //6.2判断是否取锁成功
-        if (!isLock) {
+        if (token != null) {
             //6.3成功。开启独立线程实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                 //查询数据库
-                    R r1 = dbFallBack.apply(id);
-                    //写入redis
-                    this.setWithLogicalExpire(key, r1, time, timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁
-                    unlock(lockKey);
-                }
-            });
+            try {
+                cacheRebuildExecutor.execute(() -> rebuild(key, lockKey, token, id, dbFallBack, time, timeUnit));
+            } catch (RejectedExecutionException e) {
+                //线程池已满，放弃本次重建并释放锁，下次访问时再试
+                rebuildRejectedCount.increment();
+                unlock(lockKey, token);
+                log.warn("缓存重建任务被拒绝，key: {}", key);
+            }
         }
-        //6.4失败则返回过期商铺信息
+        //6.4返回过期商铺信息
         return r;
     }
-    //生成锁
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+
+    private <R, ID> void rebuild(String key, String lockKey, String token, ID id,
+                                 Function<ID, R> dbFallBack, Long time, TimeUnit timeUnit) {
+        rebuildStartedCount.increment();
+        try {
+            //拿到锁后再检查一次，可能其他节点刚刚重建完
+            byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+            LocalDateTime expireTime = bytes == null || bytes.length == 0 ? null : cacheCodec.readExpireTime(bytes);
+            if (expireTime != null && expireTime.isAfter(LocalDateTime.now())) {
+                return;
+            }
+            //查询数据库
+            R r = dbFallBack.apply(id);
+            if (r == null) {
+                //数据已被删除，移除缓存
+                this.delete(key);
+                return;
+            }
+            //写入redis
+            this.setWithLogicalExpire(key, r, time, timeUnit);
+            localCache.evict(key);
+        } catch (Exception e) {
+            rebuildFailedCount.increment();
+            log.error("缓存重建失败，key: {}", key, e);
+        } finally {
+            //释放锁
+            unlock(lockKey, token);
+        }
     }
 
-    //释放锁
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+    //每个缓存key使用自己的锁
+    private static String lockKeyOf(String key) {
+        return LOCK_KEY_PREFIX + key;
+    }
+
+    //生成锁，成功时返回锁的标识，失败返回null
+    private String tryLock(String key){
+        String token = UUID.fastUUID().toString(true);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, token, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag) ? token : null;
+    }
+
+    //释放锁，标识一致才删除，避免锁超时后误删其他线程的锁
+    private void unlock(String key, String token){
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
     }
 
 }
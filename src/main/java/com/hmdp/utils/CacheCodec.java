@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 缓存值的编解码方式，CacheClient读写Redis时使用。
+ * 长度为0的字节数组保留给空值缓存，编码结果不能为空
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    <R> List<R> decodeList(byte[] bytes, Class<R> elementType);
+
+    /**
+     * 编码带逻辑过期时间的数据
+     */
+    byte[] encodeWithExpire(Object value, LocalDateTime expireTime);
+
+    /**
+     * @return data已经转换为type的RedisData，数据不是逻辑过期格式时返回null
+     */
+    RedisData decodeWithExpire(byte[] bytes, Class<?> type);
+
+    /**
+     * 只读取逻辑过期时间，数据不是逻辑过期格式时返回null
+     */
+    LocalDateTime readExpireTime(byte[] bytes);
+}
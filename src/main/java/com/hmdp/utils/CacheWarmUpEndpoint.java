@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 缓存预热进度端点：GET /actuator/warmup，默认不通过HTTP暴露
+ */
+@Component
+@Endpoint(id = "warmup")
+public class CacheWarmUpEndpoint {
+    private final CacheWarmUpRunner cacheWarmUpRunner;
+
+    public CacheWarmUpEndpoint(CacheWarmUpRunner cacheWarmUpRunner) {
+        this.cacheWarmUpRunner = cacheWarmUpRunner;
+    }
+
+    @ReadOperation
+    public Map<String, Object> progress() {
+        return cacheWarmUpRunner.getProgress();
+    }
+}
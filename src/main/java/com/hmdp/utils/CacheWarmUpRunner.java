@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.CacheWarmUpProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热缓存：店铺类型列表、逻辑过期的店铺缓存和按类型分组的店铺GEO索引。
+ * 店铺按id游标分页读取，每页交给线程池用管道写入Redis，同时写入的页数由concurrency限制；
+ * 多个节点同时启动时通过Redis标记只让一个节点预热，预热失败时删除标记，其他节点或重启后可以重新预热。
+ * 在内嵌Web服务器启动之前执行，同步预热时预热完成后才开始接收请求
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements SmartLifecycle {
+    private static final String WARMUP_KEY = "warmup:shop";
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheWarmUpProperties properties;
+
+    private final AtomicLong shopsWritten = new AtomicLong();
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong pagesFailed = new AtomicLong();
+    private volatile String status = "idle";
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        running = true;
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (properties.isAsync()) {
+            Thread thread = new Thread(this::warmUp, "cache-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 内嵌Web服务器在 Integer.MAX_VALUE - 1 阶段启动，预热在它之前执行
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * 预热进度
+     */
+    public Map<String, Object> getProgress() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("status", status);
+        progress.put("shopsWritten", shopsWritten.get());
+        progress.put("pagesWritten", pagesWritten.get());
+        progress.put("pagesFailed", pagesFailed.get());
+        progress.put("elapsedMillis", startedAt == 0 ? 0
+                : (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt);
+        return progress;
+    }
+
+    private void warmUp() {
+        //1.最近已经有节点预热过，跳过
+        String owner = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        Boolean first = stringRedisTemplate.opsForValue().setIfAbsent(WARMUP_KEY, owner,
+                properties.getMinInterval().getSeconds(), TimeUnit.SECONDS);
+        if (!BooleanUtil.isTrue(first)) {
+            status = "skipped";
+            log.info("其他节点最近已经预热过缓存，跳过，owner: {}", stringRedisTemplate.opsForValue().get(WARMUP_KEY));
+            return;
+        }
+        status = "running";
+        startedAt = System.currentTimeMillis();
+        int concurrency = Math.max(1, properties.getConcurrency());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("cache-warmup-", true));
+        Semaphore permits = new Semaphore(concurrency);
+        try {
+            //2.店铺类型
+            List<ShopType> types = shopTypeService.query().orderByAsc("sort").list();
+            cacheClient.set(CACHE_SHOPTYPE_KEY + "all", types, CACHE_SHOPTYPE_TTL, TimeUnit.MINUTES);
+            //3.按id游标分页读取店铺，拿到许可后才读下一页，内存中最多有concurrency+1页
+            long lastId = 0;
+            List<Shop> page;
+            while (true) {
+                permits.acquire();
+                page = shopService.query().gt("id", lastId).orderByAsc("id")
+                        .last("limit " + properties.getPageSize()).list();
+                if (page.isEmpty()) {
+                    permits.release();
+                    break;
+                }
+                lastId = page.get(page.size() - 1).getId();
+                List<Shop> shops = page;
+                executor.execute(() -> {
+                    try {
+                        writePage(shops);
+                        pagesWritten.incrementAndGet();
+                        shopsWritten.addAndGet(shops.size());
+                    } catch (Exception e) {
+                        pagesFailed.incrementAndGet();
+                        log.error("预热店铺缓存失败，id范围: {}-{}", shops.get(0).getId(), shops.get(shops.size() - 1).getId(), e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            //4.等待所有页写完
+            permits.acquire(concurrency);
+            status = pagesFailed.get() == 0 ? "finished" : "finished_with_errors";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = "interrupted";
+        } catch (Exception e) {
+            status = "failed";
+            log.error("缓存预热失败", e);
+        } finally {
+            executor.shutdown();
+            finishedAt = System.currentTimeMillis();
+            log.info("缓存预热结束，{}", getProgress());
+            //5.没有全部写入时删除标记，不影响其他节点重新预热
+            if (!"finished".equals(status)) {
+                releaseMarker(owner);
+            }
+        }
+    }
+
+    private void releaseMarker(String owner) {
+        try {
+            if (owner.equals(stringRedisTemplate.opsForValue().get(WARMUP_KEY))) {
+                stringRedisTemplate.delete(WARMUP_KEY);
+            }
+        } catch (Exception e) {
+            log.warn("删除预热标记失败", e);
+        }
+    }
+
+    private void writePage(List<Shop> shops) {
+        //1.逻辑过期的店铺缓存
+        Map<String, Shop> values = shops.stream()
+                .collect(Collectors.toMap(shop -> CACHE_SHOP_KEY + shop.getId(), Function.identity()));
+        cacheClient.setWithLogicalExpireBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //2.按类型分组写入GEO
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+                List<RedisGeoCommands.GeoLocation<byte[]>> locations = new ArrayList<>(entry.getValue().size());
+                for (Shop shop : entry.getValue()) {
+                    locations.add(new RedisGeoCommands.GeoLocation<>(
+                            StrUtil.utf8Bytes(shop.getId().toString()), new Point(shop.getX(), shop.getY())));
+                }
+                connection.geoCommands().geoAdd(StrUtil.utf8Bytes(SHOP_GEO_KEY + entry.getKey()), locations);
+            }
+            return null;
+        });
+    }
+}
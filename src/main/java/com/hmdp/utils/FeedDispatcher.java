@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.FeedProperties;
+import com.hmdp.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FEED_BIG_AUTHORS_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FOLLOWERS_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+
+/**
+ * 关注流推拉结合：
+ * 普通作者发布笔记后由FeedFanoutWorker异步分批推送到粉丝的收件箱 feed:{粉丝id}；
+ * 粉丝数达到阈值的作者（大V）只写入自己的发件箱 feed:outbox:{作者id}，粉丝读取时再拉取合并。
+ * 大V一旦被标记就一直走拉模式，避免粉丝数在阈值附近波动时笔记在两种模式间来回切换
+ */
+@Slf4j
+@Component
+public class FeedDispatcher {
+    /**
+     * 同一分数内按笔记id倒序，与Redis的ZREVRANGEBYSCORE顺序一致，保证多个来源合并后offset仍然有效
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> FEED_ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>, Double>comparing(ZSetOperations.TypedTuple::getScore, Comparator.reverseOrder())
+                    .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder());
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private FeedProperties feedProperties;
+    @Resource
+    private FeedFanoutWorker feedFanoutWorker;
+
+    /**
+     * 发布笔记到关注流
+     * @param timestamp 笔记在关注流中的分数，毫秒时间戳
+     */
+    public void publish(Long authorId, Long blogId, long timestamp) {
+        //1.大V只写发件箱
+        if (isBigAuthor(authorId)) {
+            String key = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForZSet().add(key, blogId.toString(), timestamp);
+            stringRedisTemplate.opsForZSet().removeRange(key, 0, -feedProperties.getOutboxMaxSize() - 1L);
+            return;
+        }
+        //2.普通作者提交推送任务，由stream.feed的消费者异步推送给所有粉丝
+        feedFanoutWorker.submit(authorId, blogId, timestamp);
+    }
+
+    /**
+     * 读取关注流的一页，合并收件箱和关注的大V的发件箱，按分数倒序
+     * @param max 本页的最大分数（包含）
+     * @param offset 分数等于max的笔记中需要跳过的个数
+     */
+    public List<ZSetOperations.TypedTuple<String>> read(Long userId, long max, int offset, int count) {
+        String inboxKey = FEED_KEY + userId;
+        //1.查询关注的大V
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect("follow:" + userId, FEED_BIG_AUTHORS_KEY);
+        if (bigAuthors == null || bigAuthors.isEmpty()) {
+            //没有关注大V，直接分页查询收件箱
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(inboxKey, 0, max, offset, count);
+            return tuples == null ? new ArrayList<>() : new ArrayList<>(tuples);
+        }
+        //2.每个来源都取前offset+count条，合并后再跳过offset条
+        List<String> keys = new ArrayList<>(bigAuthors.size() + 1);
+        keys.add(inboxKey);
+        bigAuthors.forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        RedisZSetCommands.Range range = RedisZSetCommands.Range.range().gte(0).lte(max);
+        RedisZSetCommands.Limit limit = RedisZSetCommands.Limit.limit().offset(0).count(offset + count);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.zSetCommands().zRevRangeByScoreWithScores(StrUtil.utf8Bytes(key), range, limit);
+            }
+            return null;
+        });
+        //3.合并去重，按分数和id倒序
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (seen.add(tuple.getValue())) {
+                    merged.add(tuple);
+                }
+            }
+        }
+        return merged.stream().sorted(FEED_ORDER).skip(offset).limit(count).collect(Collectors.toList());
+    }
+
+    /**
+     * 收件箱或者关注的大V的发件箱是否被裁剪过，裁剪过说明更早的笔记只能从数据库查询
+     */
+    public boolean isTruncated(Long userId) {
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect("follow:" + userId, FEED_BIG_AUTHORS_KEY);
+        List<String> authors = bigAuthors == null ? new ArrayList<>() : new ArrayList<>(bigAuthors);
+        List<Object> sizes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zSetCommands().zCard(StrUtil.utf8Bytes(FEED_KEY + userId));
+            for (String authorId : authors) {
+                connection.zSetCommands().zCard(StrUtil.utf8Bytes(FEED_OUTBOX_KEY + authorId));
+            }
+            return null;
+        });
+        if ((Long) sizes.get(0) >= feedProperties.getInboxMaxSize()) {
+            return true;
+        }
+        for (int i = 1; i < sizes.size(); i++) {
+            if ((Long) sizes.get(i) >= feedProperties.getOutboxMaxSize()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isBigAuthor(Long authorId) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHORS_KEY, authorId.toString()))) {
+            return true;
+        }
+        long followers = followerCount(authorId);
+        if (followers < feedProperties.getBigAuthorThreshold()) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHORS_KEY, authorId.toString());
+        log.info("作者粉丝数达到阈值，改为拉模式，authorId: {}, followers: {}", authorId, followers);
+        return true;
+    }
+
+    /**
+     * 粉丝数在Redis中缓存followerCountTtl，作者连续发布笔记时不用每次都COUNT粉丝
+     */
+    private long followerCount(Long authorId) {
+        String key = FEED_FOLLOWERS_KEY + authorId;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        if (StrUtil.isNotBlank(cached)) {
+            return Long.parseLong(cached);
+        }
+        Integer followers = followService.query().eq("follow_user_id", authorId).count();
+        stringRedisTemplate.opsForValue().set(key, followers.toString(),
+                feedProperties.getFollowerCountTtl().getSeconds(), TimeUnit.SECONDS);
+        return followers;
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 关注流推送任务端点：GET /actuator/feed，返回积压、处理中和推送延迟，默认不通过HTTP暴露
+ */
+@Component
+@Endpoint(id = "feed")
+public class FeedEndpoint {
+    private final FeedFanoutWorker feedFanoutWorker;
+
+    public FeedEndpoint(FeedFanoutWorker feedFanoutWorker) {
+        this.feedFanoutWorker = feedFanoutWorker;
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        return feedFanoutWorker.getStats();
+    }
+}
@@ -0,0 +1,340 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.FeedProperties;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+
+/**
+ * 关注流推送任务：发布笔记时只往 stream.feed 写一条消息，由消费者组异步推送给粉丝。
+ * 每个节点一个读取线程和一个推送线程池，同时处理中的消息数不超过maxInflight，
+ * 推送跟不上时消息积压在stream中而不是内存里。
+ * 每条消息按tb_follow的id游标分页查询粉丝，每页一次pipeline写入收件箱并裁剪到inboxMaxSize；
+ * ZADD是幂等的，消息处理失败或者节点宕机后被重新认领时从头推送即可。
+ * 确认后的消息立即删除，stream的长度就是积压的任务数
+ */
+@Slf4j
+@Component
+public class FeedFanoutWorker {
+    private static final String QUEUE_NAME = "stream.feed";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private FeedProperties feedProperties;
+
+    private ExecutorService readerExecutor;
+    private ExecutorService fanoutExecutor;
+    private Semaphore inflight;
+    private Consumer consumer;
+    /**
+     * 本节点正在处理的消息，认领超时消息时跳过，避免把自己还在推送的任务再认领一次
+     */
+    private final Set<RecordId> processing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder claimedCount = new LongAdder();
+    /**
+     * 最近一次完成的任务从发布到推送完成的耗时
+     */
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    @PostConstruct
+    public void init() {
+        // 1.创建消费者组，stream不存在时一并创建
+        createGroupIfAbsent();
+        // 2.启动读取线程和推送线程池
+        consumer = Consumer.from(feedProperties.getConsumerGroup(),
+                NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid());
+        inflight = new Semaphore(feedProperties.getMaxInflight());
+        fanoutExecutor = Executors.newFixedThreadPool(feedProperties.getFanoutThreads(),
+                new NamedThreadFactory("feed-fanout-", true));
+        readerExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("feed-reader-", true));
+        readerExecutor.submit(this::readLoop);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        readerExecutor.shutdownNow();
+        // 未完成的消息留在pending-list，重启或者其他节点认领后继续推送
+        fanoutExecutor.shutdownNow();
+    }
+
+    /**
+     * 提交推送任务 XADD stream.feed * authorId blogId timestamp
+     */
+    public void submit(Long authorId, Long blogId, long timestamp) {
+        Map<String, String> value = new HashMap<>(4);
+        value.put("authorId", authorId.toString());
+        value.put("blogId", blogId.toString());
+        value.put("timestamp", String.valueOf(timestamp));
+        stringRedisTemplate.opsForStream().add(StreamRecords.string(value).withStreamKey(QUEUE_NAME));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Long backlog = stringRedisTemplate.opsForStream().size(QUEUE_NAME);
+        stats.put("backlog", backlog == null ? 0 : backlog);
+        stats.put("pending", pendingCount());
+        stats.put("inflight", feedProperties.getMaxInflight() - inflight.availablePermits());
+        stats.put("completed", completedCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("claimed", claimedCount.sum());
+        stats.put("delivered", deliveredCount.sum());
+        stats.put("lastLagMillis", lastLagMillis);
+        stats.put("maxLagMillis", maxLagMillis);
+        return stats;
+    }
+
+    private void createGroupIfAbsent() {
+        String group = feedProperties.getConsumerGroup();
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    QUEUE_NAME.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+            log.info("创建关注流消费者组成功，group: {}", group);
+        } catch (Exception e) {
+            // BUSYGROUP说明消费者组已经存在
+            if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private void readLoop() {
+        // 1.先处理本消费者上次退出时没有确认的消息，从上次读到的id继续读pending-list，读完后置为null
+        String recoverFrom = "0";
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // 2.等待空闲名额，有多少名额就最多读取多少条消息
+                inflight.acquire();
+                int permits = 1 + inflight.drainPermits();
+                int dispatched = 0;
+                List<MapRecord<String, Object, Object>> records;
+                boolean recovering = recoverFrom != null;
+                try {
+                    records = recovering
+                            ? read(permits, null, ReadOffset.from(recoverFrom))
+                            : read(permits, Duration.ofSeconds(2), ReadOffset.lastConsumed());
+                    for (MapRecord<String, Object, Object> record : records) {
+                        // 从pending-list读取时，正在处理的消息也会被读到，跳过并归还名额
+                        if (!processing.contains(record.getId())) {
+                            dispatch(record);
+                            dispatched++;
+                        }
+                    }
+                } finally {
+                    // 没有用掉的名额归还，已分发的消息处理完后各自归还
+                    inflight.release(permits - dispatched);
+                }
+                if (recovering) {
+                    recoverFrom = records.isEmpty() ? null : records.get(records.size() - 1).getId().getValue();
+                } else if (records.isEmpty()) {
+                    // 3.空闲时认领超时未确认的消息
+                    claimPendingList();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("读取关注流推送任务异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private List<MapRecord<String, Object, Object>> read(int count, Duration block, ReadOffset offset) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        if (block != null) {
+            options = options.block(block);
+        }
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                consumer, options, StreamOffset.create(QUEUE_NAME, offset));
+        return list == null ? Collections.<MapRecord<String, Object, Object>>emptyList() : list;
+    }
+
+    /**
+     * 认领空闲超过claimMinIdle的消息，包括本节点处理失败的消息，XPENDING + XCLAIM
+     */
+    private void claimPendingList() {
+        int permits = inflight.drainPermits();
+        if (permits == 0) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> records = Collections.emptyList();
+        try {
+            // 1.查询超时未确认的消息
+            String group = feedProperties.getConsumerGroup();
+            Duration minIdle = feedProperties.getClaimMinIdle();
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                    QUEUE_NAME, group, Range.unbounded(), permits);
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!processing.contains(message.getId())
+                        && message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                    ids.add(message.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            // 2.认领到当前消费者，XCLAIM会再次校验空闲时间，避免多个节点重复认领
+            List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream().claim(
+                    QUEUE_NAME, group, consumer.getName(),
+                    RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids.toArray(new RecordId[0])));
+            if (claimed == null || claimed.isEmpty()) {
+                return;
+            }
+            records = claimed;
+            claimedCount.add(records.size());
+            log.info("认领关注流推送任务，数量: {}", records.size());
+            records.forEach(this::dispatch);
+        } finally {
+            inflight.release(permits - records.size());
+        }
+    }
+
+    private void dispatch(MapRecord<String, Object, Object> record) {
+        processing.add(record.getId());
+        try {
+            fanoutExecutor.execute(() -> {
+                try {
+                    handle(record);
+                } finally {
+                    processing.remove(record.getId());
+                    inflight.release();
+                }
+            });
+        } catch (Exception e) {
+            // 线程池已关闭，消息留在pending-list
+            processing.remove(record.getId());
+            inflight.release();
+        }
+    }
+
+    private void handle(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        Object blogId = value.get("blogId");
+        try {
+            Long authorId = Long.valueOf(value.get("authorId").toString());
+            long timestamp = Long.parseLong(value.get("timestamp").toString());
+            // 1.推送给所有粉丝
+            long delivered = fanout(authorId, Long.valueOf(blogId.toString()), timestamp);
+            // 2.确认并删除消息
+            stringRedisTemplate.opsForStream().acknowledge(QUEUE_NAME, feedProperties.getConsumerGroup(), record.getId());
+            stringRedisTemplate.opsForStream().delete(QUEUE_NAME, record.getId());
+            // 3.记录推送延迟
+            long lag = System.currentTimeMillis() - timestamp;
+            lastLagMillis = lag;
+            if (lag > maxLagMillis) {
+                maxLagMillis = lag;
+            }
+            completedCount.increment();
+            log.debug("笔记推送完成，blogId: {}, followers: {}, lag: {}ms", blogId, delivered, lag);
+        } catch (InterruptedException e) {
+            // 节点关闭时推送未完成，不确认消息，留在pending-list由重启后或其他节点继续推送
+            Thread.currentThread().interrupt();
+            log.info("笔记推送被中断，blogId: {}", blogId);
+        } catch (Exception e) {
+            // 消息留在pending-list，超过claimMinIdle后重新认领
+            failedCount.increment();
+            log.error("笔记推送失败，blogId: {}", blogId, e);
+        }
+    }
+
+    //按tb_follow的id游标分页查询粉丝，每页用一次pipeline推送并裁剪收件箱，推完最后一页前被中断则抛出异常
+    private long fanout(Long authorId, Long blogId, long timestamp) throws InterruptedException {
+        int batchSize = feedProperties.getFanoutBatchSize();
+        long keep = feedProperties.getInboxMaxSize();
+        byte[] member = StrUtil.utf8Bytes(blogId.toString());
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("推送到第" + total + "个粉丝时被中断");
+            }
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Follow follow : follows) {
+                    byte[] key = StrUtil.utf8Bytes(FEED_KEY + follow.getUserId());
+                    connection.zSetCommands().zAdd(key, timestamp, member);
+                    //只保留分数最高的keep条 ZREMRANGEBYRANK key 0 -(keep+1)
+                    connection.zSetCommands().zRemRange(key, 0, -keep - 1);
+                }
+                return null;
+            });
+            total += follows.size();
+            deliveredCount.add(follows.size());
+            if (follows.size() < batchSize) {
+                break;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+        return total;
+    }
+
+    private long pendingCount() {
+        try {
+            return stringRedisTemplate.opsForStream()
+                    .pending(QUEUE_NAME, feedProperties.getConsumerGroup()).getTotalPendingMessages();
+        } catch (Exception e) {
+            log.debug("查询关注流pending消息数失败", e);
+            return -1;
+        }
+    }
+}
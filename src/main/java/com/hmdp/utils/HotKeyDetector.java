@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.HotKeyProperties;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 本节点的热点key探测：按采样率抽样访问，用滑动窗口的count-min sketch估算每个key在窗口内的访问次数。
+ * 估算值达到阈值的key被标记为热点，调用方据此把数据固定在本地缓存；
+ * 窗口每滑动一个桶，重新评估热点和候选key，访问量下降的key自动摘除
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+    private final HotKeyProperties properties;
+    private final long bucketMillis;
+    private final long weight;
+    private final int mask;
+    private final Bucket[] buckets;
+    /**
+     * 估算值超过阈值一半的候选key及其最近一次估算值，用于top-K展示
+     */
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    /**
+     * 当前的热点key
+     */
+    private final Map<String, Boolean> hotKeys = new ConcurrentHashMap<>();
+    private final AtomicLong lastEpoch = new AtomicLong();
+
+    public HotKeyDetector(HotKeyProperties properties) {
+        this.properties = properties;
+        this.bucketMillis = Math.max(1, properties.getWindow().toMillis() / properties.getBuckets());
+        this.weight = Math.max(1, Math.round(1 / properties.getSampleRate()));
+        int width = Integer.highestOneBit(properties.getSketchWidth());
+        this.mask = width - 1;
+        this.buckets = new Bucket[properties.getBuckets()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket(properties.getSketchDepth(), width);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     * @return 该key当前是否为热点key
+     */
+    public boolean record(String key) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < properties.getSampleRate()) {
+            long epoch = System.currentTimeMillis() / bucketMillis;
+            rotate(epoch);
+            int hash = spread(key.hashCode());
+            bucketOf(epoch).add(hash, weight, mask);
+            long estimate = estimate(hash, epoch);
+            if (estimate >= properties.getThreshold() / 2) {
+                candidates.put(key, estimate);
+            }
+            if (estimate >= properties.getThreshold() && hotKeys.putIfAbsent(key, Boolean.TRUE) == null) {
+                log.info("发现热点key: {}，窗口内访问次数约: {}", key, estimate);
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * @return 访问次数最多的K个key，按估算的访问次数倒序
+     */
+    public List<HotKey> topK() {
+        long epoch = System.currentTimeMillis() / bucketMillis;
+        List<HotKey> result = new ArrayList<>(candidates.size());
+        for (String key : candidates.keySet()) {
+            long estimate = estimate(spread(key.hashCode()), epoch);
+            result.add(new HotKey(key, estimate, hotKeys.containsKey(key)));
+        }
+        result.sort(Comparator.comparingLong(HotKey::getCount).reversed());
+        return result.size() > properties.getTopK() ? result.subList(0, properties.getTopK()) : result;
+    }
+
+    /**
+     * 进入新的桶时，由一个线程重新评估候选key和热点key
+     */
+    private void rotate(long epoch) {
+        long last = lastEpoch.get();
+        if (epoch <= last || !lastEpoch.compareAndSet(last, epoch)) {
+            return;
+        }
+        candidates.replaceAll((key, count) -> estimate(spread(key.hashCode()), epoch));
+        candidates.values().removeIf(count -> count < properties.getThreshold() / 2);
+        hotKeys.keySet().removeIf(key -> estimate(spread(key.hashCode()), epoch) < properties.getThreshold());
+        //候选key过多时只保留估算值最高的一部分
+        int maxCandidates = properties.getTopK() * 4;
+        if (candidates.size() > maxCandidates) {
+            List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.entrySet());
+            entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            entries.subList(maxCandidates, entries.size()).forEach(e -> candidates.remove(e.getKey()));
+        }
+    }
+
+    /**
+     * 窗口内所有有效桶的估算值之和
+     */
+    private long estimate(int hash, long epoch) {
+        long total = 0;
+        for (Bucket bucket : buckets) {
+            if (bucket.epoch > epoch - buckets.length && bucket.epoch <= epoch) {
+                total += bucket.estimate(hash, mask);
+            }
+        }
+        return total;
+    }
+
+    private Bucket bucketOf(long epoch) {
+        Bucket bucket = buckets[(int) (epoch % buckets.length)];
+        if (bucket.epoch != epoch) {
+            synchronized (bucket) {
+                if (bucket.epoch != epoch) {
+                    //桶被复用，清空上一轮的计数
+                    bucket.clear();
+                    bucket.epoch = epoch;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * 一个时间桶内的count-min sketch
+     */
+    private static class Bucket {
+        private final AtomicLongArray[] rows;
+        private volatile long epoch = -1;
+
+        Bucket(int depth, int width) {
+            rows = new AtomicLongArray[depth];
+            for (int i = 0; i < depth; i++) {
+                rows[i] = new AtomicLongArray(width);
+            }
+        }
+
+        void add(int hash, long weight, int mask) {
+            for (int i = 0; i < rows.length; i++) {
+                rows[i].addAndGet(index(hash, i, mask), weight);
+            }
+        }
+
+        long estimate(int hash, int mask) {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < rows.length; i++) {
+                min = Math.min(min, rows[i].get(index(hash, i, mask)));
+            }
+            return min;
+        }
+
+        void clear() {
+            for (AtomicLongArray row : rows) {
+                for (int i = 0; i < row.length(); i++) {
+                    row.set(i, 0);
+                }
+            }
+        }
+
+        /**
+         * 双重哈希得到第row行的位置
+         */
+        private static int index(int hash, int row, int mask) {
+            int h2 = (hash >>> 16) | 1;
+            return (hash + row * h2) & mask;
+        }
+    }
+
+    @Data
+    public static class HotKey {
+        private final String key;
+        private final long count;
+        private final boolean pinned;
+    }
+}
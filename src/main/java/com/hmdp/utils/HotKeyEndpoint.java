@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 热点key监控端点：GET /actuator/hotkeys，默认不通过HTTP暴露。
+ * key中最后一个冒号之后的部分（id、手机号等）只显示首尾少量字符
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+    private final HotKeyDetector hotKeyDetector;
+    private final LocalCache localCache;
+    private final CacheClient cacheClient;
+
+    public HotKeyEndpoint(HotKeyDetector hotKeyDetector, LocalCache localCache, CacheClient cacheClient) {
+        this.hotKeyDetector = hotKeyDetector;
+        this.localCache = localCache;
+        this.cacheClient = cacheClient;
+    }
+
+    @ReadOperation
+    public Map<String, Object> hotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        List<HotKeyDetector.HotKey> topKeys = hotKeyDetector.topK().stream()
+                .map(hotKey -> new HotKeyDetector.HotKey(mask(hotKey.getKey()), hotKey.getCount(), hotKey.isPinned()))
+                .collect(Collectors.toList());
+        result.put("topKeys", topKeys);
+        result.put("pinnedSize", localCache.pinnedSize());
+        result.put("cacheStats", cacheClient.getStats());
+        return result;
+    }
+
+    /**
+     * cache:phone:13812345678 -> cache:phone:13*******78，短id全部隐藏
+     */
+    static String mask(String key) {
+        int index = key.lastIndexOf(':') + 1;
+        String suffix = key.substring(index);
+        int keep = suffix.length() / 4;
+        return key.substring(0, index) + StrUtil.hide(suffix, keep, suffix.length() - keep);
+    }
+}
@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一ID生成器，通过 hmdp.id.generator 选择实现：
+ * redis 使用 {@link RedisIdWorker}，snowflake 使用 {@link SnowflakeIdGenerator}
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成全局唯一、趋势递增的ID
+     * @param keyPrefix 业务前缀，例如 order
+     * @return ID
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * JSON编码，Redis中的数据与之前直接写JSON字符串时完全一致
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "json", matchIfMissing = true)
+public class JsonCacheCodec implements CacheCodec {
+    private static final String EXPIRE_TIME_FIELD = "expireTime";
+
+    @Override
+    public byte[] encode(Object value) {
+        return StrUtil.utf8Bytes(JSONUtil.toJsonStr(value));
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return JSONUtil.toBean(StrUtil.utf8Str(bytes), type);
+    }
+
+    @Override
+    public <R> List<R> decodeList(byte[] bytes, Class<R> elementType) {
+        return JSONUtil.toList(StrUtil.utf8Str(bytes), elementType);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        return encode(redisData);
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        //只解析一次字符串，data直接从JSONObject转换
+        JSONObject json = JSONUtil.parseObj(StrUtil.utf8Str(bytes));
+        if (!json.containsKey(EXPIRE_TIME_FIELD)) {
+            return null;
+        }
+        RedisData redisData = json.toBean(RedisData.class);
+        Object data = redisData.getData();
+        redisData.setData(data instanceof JSONObject ? ((JSONObject) data).toBean(type) : null);
+        return redisData;
+    }
+
+    @Override
+    public LocalDateTime readExpireTime(byte[] bytes) {
+        JSONObject json = JSONUtil.parseObj(StrUtil.utf8Str(bytes));
+        return json.containsKey(EXPIRE_TIME_FIELD) ? json.toBean(RedisData.class).getExpireTime() : null;
+    }
+}
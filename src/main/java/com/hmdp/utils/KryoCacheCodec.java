@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Kryo二进制编码，格式：魔数(1) + 格式版本(1) + 标志位(1) + [逻辑过期时间毫秒数(8)] + Kryo对象。
+ * 逻辑过期时间放在固定位置的头部，判断是否过期不需要反序列化对象；
+ * 对象使用CompatibleFieldSerializer按字段名读写，实体增删字段后旧数据仍然可以读取。
+ * 不是以魔数开头的数据按JSON解析，从JSON编码切换过来时Redis中已有的数据不需要清理。
+ * 只能读写登记过的类型，Redis中的数据被篡改时也不会实例化任意类；缓存新的类型需要先在下面登记，编号只能追加不能修改
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "kryo")
+public class KryoCacheCodec implements CacheCodec {
+    private static final byte MAGIC = (byte) 0xCB;
+    private static final byte VERSION = 1;
+    private static final byte FLAG_EXPIRE = 1;
+    private static final int HEADER_LENGTH = 3;
+    private static final int EXPIRE_LENGTH = 8;
+    private static final int BUFFER_SIZE = 256;
+
+    /**
+     * Kryo不是线程安全的，每个线程一个实例
+     */
+    private static final ThreadLocal<Kryo> KRYO = ThreadLocal.withInitial(() -> {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(true);
+        kryo.setReferences(false);
+        kryo.setDefaultSerializer(CompatibleFieldSerializer.class);
+        //编号写入缓存数据，固定编号与登记顺序无关
+        kryo.register(LocalDateTime.class, 100);
+        kryo.register(ArrayList.class, 101);
+        kryo.register(LinkedList.class, 102);
+        kryo.register(HashMap.class, 103);
+        kryo.register(LinkedHashMap.class, 104);
+        kryo.register(HashSet.class, 105);
+        kryo.register(Shop.class, 110);
+        kryo.register(ShopType.class, 111);
+        kryo.register(Blog.class, 112);
+        kryo.register(UserDTO.class, 113);
+        kryo.register(RedisData.class, 114);
+        return kryo;
+    });
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, false, 0);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (!isKryo(bytes)) {
+            return jsonCodec.decode(bytes, type);
+        }
+        return type.cast(read(bytes));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> List<R> decodeList(byte[] bytes, Class<R> elementType) {
+        if (!isKryo(bytes)) {
+            return jsonCodec.decodeList(bytes, elementType);
+        }
+        return (List<R>) read(bytes);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        return write(value, true, expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        if (!isKryo(bytes)) {
+            return jsonCodec.decodeWithExpire(bytes, type);
+        }
+        LocalDateTime expireTime = readExpireTime(bytes);
+        if (expireTime == null) {
+            return null;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(expireTime);
+        redisData.setData(type.cast(read(bytes)));
+        return redisData;
+    }
+
+    @Override
+    public LocalDateTime readExpireTime(byte[] bytes) {
+        if (!isKryo(bytes)) {
+            return jsonCodec.readExpireTime(bytes);
+        }
+        if ((bytes[2] & FLAG_EXPIRE) == 0) {
+            return null;
+        }
+        long expireMillis = new Input(bytes, HEADER_LENGTH, EXPIRE_LENGTH).readLong();
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault());
+    }
+
+    private byte[] write(Object value, boolean withExpire, long expireMillis) {
+        Output output = new Output(BUFFER_SIZE, -1);
+        output.writeByte(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(withExpire ? FLAG_EXPIRE : 0);
+        if (withExpire) {
+            output.writeLong(expireMillis);
+        }
+        KRYO.get().writeClassAndObject(output, value);
+        return output.toBytes();
+    }
+
+    private Object read(byte[] bytes) {
+        if (bytes[1] != VERSION) {
+            throw new IllegalStateException("不支持的缓存格式版本: " + bytes[1]);
+        }
+        int offset = (bytes[2] & FLAG_EXPIRE) == 0 ? HEADER_LENGTH : HEADER_LENGTH + EXPIRE_LENGTH;
+        Input input = new Input(bytes, offset, bytes.length - offset);
+        return KRYO.get().readClassAndObject(input);
+    }
+
+    private static boolean isKryo(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.HotKeyProperties;
+import com.hmdp.config.LocalCacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_TOPIC;
+
+/**
+ * 进程内一级缓存（Caffeine），缓存反序列化后的对象，命中时既不访问Redis也不用解析JSON。
+ * 每个key前缀一个有界缓存，删除key时通过Redis发布订阅通知所有节点失效
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 按前缀长度倒序排列，优先匹配更具体的前缀
+     */
+    private final List<PrefixCache> caches = new ArrayList<>();
+    /**
+     * 热点key的短期本地缓存，不区分前缀，没有开启热点探测时为null
+     */
+    private final Cache<String, Object> pinned;
+
+    public LocalCache(StringRedisTemplate stringRedisTemplate, LocalCacheProperties properties,
+                      HotKeyProperties hotKeyProperties, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.pinned = hotKeyProperties.isEnabled()
+                ? Caffeine.newBuilder()
+                        .maximumSize(hotKeyProperties.getPinMaximumSize())
+                        .expireAfterWrite(hotKeyProperties.getPinTtl())
+                        .build()
+                : null;
+        if (properties.isEnabled()) {
+            for (LocalCacheProperties.Spec spec : properties.getSpecs()) {
+                Cache<String, Object> cache = Caffeine.newBuilder()
+                        .maximumSize(spec.getMaximumSize())
+                        .expireAfterWrite(spec.getTtl())
+                        .build();
+                caches.add(new PrefixCache(spec.getPrefix(), cache));
+            }
+            caches.sort(Comparator.comparingInt((PrefixCache c) -> c.prefix.length()).reversed());
+        }
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_TOPIC));
+    }
+
+    /**
+     * @return 本地缓存的对象，未命中或该前缀没有开启本地缓存时返回null
+     */
+    public Object get(String key) {
+        Cache<String, Object> cache = cacheOf(key);
+        Object value = cache == null ? null : cache.getIfPresent(key);
+        if (value == null && pinned != null) {
+            value = pinned.getIfPresent(key);
+        }
+        return value;
+    }
+
+    /**
+     * 把热点key固定在本地缓存中，即使该前缀没有开启本地缓存
+     */
+    public void pin(String key, Object value) {
+        if (pinned != null && value != null) {
+            pinned.put(key, value);
+        }
+    }
+
+    public long pinnedSize() {
+        return pinned == null ? 0 : pinned.estimatedSize();
+    }
+
+    public void put(String key, Object value) {
+        Cache<String, Object> cache = cacheOf(key);
+        if (cache != null && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 失效本节点和其他所有节点的本地缓存
+     */
+    public void evict(String key) {
+        invalidate(key);
+        if (!caches.isEmpty() || pinned != null) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_TOPIC, key);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void invalidate(String key) {
+        Cache<String, Object> cache = cacheOf(key);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        if (pinned != null) {
+            pinned.invalidate(key);
+        }
+    }
+
+    private Cache<String, Object> cacheOf(String key) {
+        for (PrefixCache c : caches) {
+            if (key.startsWith(c.prefix)) {
+                return c.cache;
+            }
+        }
+        return null;
+    }
+
+    private static class PrefixCache {
+        private final String prefix;
+        private final Cache<String, Object> cache;
+
+        PrefixCache(String prefix, Cache<String, Object> cache) {
+            this.prefix = prefix;
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SessionProperties;
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKE_TOPIC;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录会话的本地缓存：token -> 用户信息和Redis中会话的过期时间。
+ * 本地未命中时一次pipeline查询用户hash和剩余有效期；
+ * 只有剩余有效期低于refreshThreshold时才发送EXPIRE，同一会话同一时刻只有一个线程刷新；
+ * 注销时删除Redis中的会话并通过发布订阅通知所有节点清除本地缓存
+ */
+@Component
+public class LoginSessionCache implements MessageListener {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SessionProperties sessionProperties;
+    /**
+     * 没有开启本地缓存时为null，每次请求查询Redis，但仍然只在需要时刷新有效期
+     */
+    private final Cache<String, Session> sessions;
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate, SessionProperties sessionProperties,
+                             RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.sessionProperties = sessionProperties;
+        this.sessions = sessionProperties.isLocalCacheEnabled()
+                ? Caffeine.newBuilder()
+                        .maximumSize(sessionProperties.getLocalCacheMaximumSize())
+                        .expireAfterWrite(sessionProperties.getLocalCacheTtl())
+                        .build()
+                : null;
+        listenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_REVOKE_TOPIC));
+    }
+
+    /**
+     * @return token对应的用户，会话不存在或已过期时返回null
+     */
+    public UserDTO get(String token) {
+        long now = System.currentTimeMillis();
+        //1.查询本地缓存，本地记录的过期时间已到时重新查询Redis
+        Session session = sessions == null ? null : sessions.getIfPresent(token);
+        if (session == null || session.expireAt.get() <= now) {
+            //2.查询Redis
+            session = load(token, now);
+            if (session == null) {
+                invalidate(token);
+                return null;
+            }
+            if (sessions != null) {
+                sessions.put(token, session);
+            }
+        }
+        //3.剩余有效期不足时刷新
+        if (!refreshIfNeeded(token, session, now)) {
+            invalidate(token);
+            return null;
+        }
+        return session.user;
+    }
+
+    /**
+     * 注销会话，所有节点立即失效
+     */
+    public void revoke(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        invalidate(token);
+        if (sessions != null) {
+            stringRedisTemplate.convertAndSend(LOGIN_REVOKE_TOPIC, token);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void invalidate(String token) {
+        if (sessions != null) {
+            sessions.invalidate(token);
+        }
+    }
+
+    //一次往返同时查询用户信息和剩余有效期 HGETALL + PTTL
+    @SuppressWarnings("unchecked")
+    private Session load(String token, long now) {
+        byte[] key = StrUtil.utf8Bytes(LOGIN_USER_KEY + token);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hGetAll(key);
+            connection.keyCommands().pTtl(key);
+            return null;
+        });
+        Map<Object, Object> userMap = (Map<Object, Object>) results.get(0);
+        Long ttl = (Long) results.get(1);
+        if (userMap == null || userMap.isEmpty() || ttl == null || ttl == -2) {
+            return null;
+        }
+        UserDTO userDTO = UserDTO.fromMap(userMap);
+        //没有设置过期时间(-1)时按已到期处理，立即补上有效期
+        return new Session(userDTO, ttl > 0 ? now + ttl : now);
+    }
+
+    /**
+     * @return 会话在Redis中已经不存在时返回false
+     */
+    private boolean refreshIfNeeded(String token, Session session, long now) {
+        long expireAt = session.expireAt.get();
+        if (expireAt - now >= sessionProperties.getRefreshThreshold().toMillis()) {
+            return true;
+        }
+        //只让一个线程刷新，其他线程继续使用当前会话
+        long newExpireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        if (!session.expireAt.compareAndSet(expireAt, newExpireAt)) {
+            return true;
+        }
+        Boolean success = stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        return Boolean.TRUE.equals(success);
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        /**
+         * 本节点所知的会话过期时间，其他节点刷新过时实际过期时间更晚
+         */
+        private final AtomicLong expireAt;
+
+        Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = new AtomicLong(expireAt);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接口限流，由RateLimitInterceptor在进入controller之前检查，可以在同一个方法上配置多条规则，
+ * 本地规则写在全局规则前面时，本地被拒绝的请求不会再访问Redis
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(RateLimit.List.class)
+public @interface RateLimit {
+    /**
+     * 规则名称，默认使用 类名.方法名
+     */
+    String key() default "";
+
+    /**
+     * 限流维度
+     */
+    Dimension by() default Dimension.IP;
+
+    /**
+     * by为PARAM时使用的请求参数名
+     */
+    String param() default "";
+
+    /**
+     * 窗口内最多放行的请求数
+     */
+    int limit();
+
+    /**
+     * 窗口长度
+     */
+    long window() default 1;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * true：Redis滑动窗口，所有节点共享额度；
+     * false：本节点的令牌桶，容量为limit，每个窗口补满，不访问Redis，适合保护本节点的高频接口
+     */
+    boolean global() default true;
+
+    /**
+     * 被限流时返回的提示
+     */
+    String message() default "请求过于频繁，请稍后再试";
+
+    enum Dimension {
+        /**
+         * 所有请求共用一个窗口
+         */
+        GLOBAL,
+        /**
+         * 按客户端IP
+         */
+        IP,
+        /**
+         * 按登录用户，未登录时按IP
+         */
+        USER,
+        /**
+         * 按请求参数，例如手机号
+         */
+        PARAM
+    }
+
+    @Documented
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface List {
+        RateLimit[] value();
+    }
+}
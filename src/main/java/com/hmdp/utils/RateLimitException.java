@@ -0,0 +1,10 @@
+package com.hmdp.utils;
+
+/**
+ * 请求被限流，由WebExceptionAdvice转换为失败结果
+ */
+public class RateLimitException extends RuntimeException {
+    public RateLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 检查controller方法上的@RateLimit规则，任意一条规则被限流就拒绝请求，被拒绝的请求不占用其他规则的名额。
+ * 按IP限流使用request.getRemoteAddr()，不读取客户端可以伪造的X-Forwarded-For；
+ * 部署在反向代理之后时由Tomcat的RemoteIpValve只信任内网代理传来的客户端IP（server.forward-headers-strategy=native）
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+    private RateLimiter rateLimiter;
+
+    public RateLimitInterceptor(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        HandlerMethod handlerMethod = (HandlerMethod) handler;
+        Set<RateLimit> rules = AnnotatedElementUtils.findMergedRepeatableAnnotations(handlerMethod.getMethod(), RateLimit.class);
+        if (rules.isEmpty()) {
+            return true;
+        }
+        List<RateLimiter.Rule> limits = new ArrayList<>(rules.size());
+        for (RateLimit rule : rules) {
+            String dimension = resolveDimension(rule, request);
+            if (dimension == null) {
+                //参数为空时交给controller校验
+                continue;
+            }
+            String name = StrUtil.isBlank(rule.key())
+                    ? handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName()
+                    : rule.key();
+            limits.add(new RateLimiter.Rule(name + ":" + rule.by().name().toLowerCase() + ":" + dimension,
+                    rule.limit(), rule.unit().toMillis(rule.window()), rule.global(), rule.message()));
+        }
+        rateLimiter.checkAll(limits);
+        return true;
+    }
+
+    private String resolveDimension(RateLimit rule, HttpServletRequest request) {
+        switch (rule.by()) {
+            case GLOBAL:
+                return "all";
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                return user == null ? request.getRemoteAddr() : user.getId().toString();
+            case PARAM:
+                String value = request.getParameter(rule.param());
+                return StrUtil.isBlank(value) ? null : value;
+            default:
+                return request.getRemoteAddr();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 基于Redis的滑动窗口限流，所有节点共享同一个窗口。
+ * 访问Redis之前先做本地预检查：本节点窗口内放行的请求已经达到上限，或者Redis刚返回过需要等待的时间，
+ * 直接拒绝，不访问Redis。本地放行数不会超过全局放行数，预检查不会误拒。
+ * Redis不可用时放行，限流不影响主流程。
+ * 只需要保护本节点时使用本地令牌桶，完全不访问Redis。
+ * 一个请求受多条规则限制时，所有规则都通过才占用各自的名额，任意一条被拒绝都不占用其他规则的名额
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+    /**
+     * 返回空列表表示放行，被拒绝时返回 [规则序号(从1开始), 需要等待的毫秒数]
+     */
+    private static final DefaultRedisScript<List> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 本节点的窗口，长时间没有访问的key自动清除
+     */
+    private final Cache<String, LocalWindow> localWindows = Caffeine.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+    private final Cache<String, TokenBucket> tokenBuckets = Caffeine.newBuilder()
+            .maximumSize(100000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+    private final LongAdder localRejectedCount = new LongAdder();
+    private final LongAdder remoteRejectedCount = new LongAdder();
+
+    public RateLimiter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 检查是否放行，被限流时抛出RateLimitException
+     * @param key 限流key，不含 limit: 前缀
+     */
+    public void check(String key, int limit, long window, TimeUnit unit, String message) {
+        check(key, limit, window, unit, true, message);
+    }
+
+    /**
+     * @param global true为Redis滑动窗口，false为本节点令牌桶
+     */
+    public void check(String key, int limit, long window, TimeUnit unit, boolean global, String message) {
+        checkAll(Collections.singletonList(new Rule(key, limit, unit.toMillis(window), global, message)));
+    }
+
+    /**
+     * 检查多条规则，全部通过才占用名额，被限流时抛出第一条拒绝的规则的RateLimitException
+     */
+    public void checkAll(List<Rule> rules) {
+        Rule rejected = acquire(rules);
+        if (rejected != null) {
+            throw new RateLimitException(rejected.getMessage());
+        }
+    }
+
+    public boolean tryAcquire(String key, int limit, long windowMillis) {
+        return acquireGlobal(Collections.singletonList(new Rule(key, limit, windowMillis, true, null))) == null;
+    }
+
+    /**
+     * 本节点的令牌桶，容量为limit，按limit/window的速率补充令牌，不访问Redis
+     */
+    public boolean tryAcquireLocal(String key, int limit, long windowMillis) {
+        return acquire(Collections.singletonList(new Rule(key, limit, windowMillis, false, null))) == null;
+    }
+
+    /**
+     * @return 拒绝请求的规则，全部通过时返回null
+     */
+    private Rule acquire(List<Rule> rules) {
+        //1.本地令牌桶，有一条没有令牌时归还已经扣减的令牌
+        List<TokenBucket> taken = new ArrayList<>(rules.size());
+        List<Rule> globals = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            if (rule.isGlobal()) {
+                globals.add(rule);
+                continue;
+            }
+            TokenBucket bucket = tokenBuckets.get(rule.getKey(), k -> new TokenBucket(rule.getLimit(), rule.getWindowMillis()));
+            if (!bucket.tryAcquire(System.nanoTime())) {
+                taken.forEach(TokenBucket::refund);
+                localRejectedCount.increment();
+                return rule;
+            }
+            taken.add(bucket);
+        }
+        //2.全局滑动窗口，被拒绝时同样归还本地令牌
+        Rule rejected = globals.isEmpty() ? null : acquireGlobal(globals);
+        if (rejected != null) {
+            taken.forEach(TokenBucket::refund);
+        }
+        return rejected;
+    }
+
+    private Rule acquireGlobal(List<Rule> rules) {
+        long now = System.currentTimeMillis();
+        //1.本地预检查，任意一条规则在本节点已满就不访问Redis
+        List<LocalWindow> windows = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            LocalWindow local = localWindows.get(rule.getKey(), k -> new LocalWindow());
+            if (!local.mightAcquire(now, rule.getLimit(), rule.getWindowMillis())) {
+                localRejectedCount.increment();
+                return rule;
+            }
+            windows.add(local);
+        }
+        //2.一次脚本调用检查所有规则的全局滑动窗口，窗口时间取Redis服务器时间，本地时钟只用于本地预检查
+        List<String> keys = new ArrayList<>(rules.size());
+        List<String> args = new ArrayList<>(rules.size() * 2 + 1);
+        args.add(now + "-" + ThreadLocalRandom.current().nextLong());
+        for (Rule rule : rules) {
+            keys.add(RATE_LIMIT_KEY + rule.getKey());
+            args.add(String.valueOf(rule.getWindowMillis()));
+            args.add(String.valueOf(rule.getLimit()));
+        }
+        List<?> result;
+        try {
+            result = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            log.warn("限流检查失败，放行，key: {}", keys, e);
+            return null;
+        }
+        if (result != null && result.size() == 2) {
+            //3.记住被拒绝的规则需要等待的时间，期间本节点直接拒绝
+            int index = ((Number) result.get(0)).intValue() - 1;
+            long waitMillis = ((Number) result.get(1)).longValue();
+            windows.get(index).blockUntil(now + waitMillis);
+            remoteRejectedCount.increment();
+            return rules.get(index);
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            windows.get(i).record(now, rules.get(i).getLimit());
+        }
+        return null;
+    }
+
+    public long getLocalRejectedCount() {
+        return localRejectedCount.sum();
+    }
+
+    public long getRemoteRejectedCount() {
+        return remoteRejectedCount.sum();
+    }
+
+    /**
+     * 一条限流规则
+     */
+    @Data
+    public static class Rule {
+        /**
+         * 限流key，不含 limit: 前缀
+         */
+        private final String key;
+        private final int limit;
+        private final long windowMillis;
+        /**
+         * true为Redis滑动窗口，false为本节点令牌桶
+         */
+        private final boolean global;
+        private final String message;
+    }
+
+    private static class TokenBucket {
+        private final double capacity;
+        /**
+         * 每纳秒补充的令牌数
+         */
+        private final double refillPerNanos;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(int limit, long windowMillis) {
+            this.capacity = limit;
+            this.refillPerNanos = limit / (double) TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            this.tokens = limit;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire(long nowNanos) {
+            tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * refillPerNanos);
+            lastRefillNanos = nowNanos;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        /**
+         * 归还一个令牌，其他规则拒绝了请求时使用
+         */
+        synchronized void refund() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+    }
+
+    private static class LocalWindow {
+        /**
+         * 本节点放行的请求时间，最多保留limit条
+         */
+        private final ArrayDeque<Long> accepted = new ArrayDeque<>();
+        private long blockedUntil;
+
+        synchronized boolean mightAcquire(long now, int limit, long windowMillis) {
+            if (now < blockedUntil) {
+                return false;
+            }
+            while (!accepted.isEmpty() && accepted.peekFirst() <= now - windowMillis) {
+                accepted.pollFirst();
+            }
+            return accepted.size() < limit;
+        }
+
+        synchronized void blockUntil(long until) {
+            blockedUntil = Math.max(blockedUntil, until);
+        }
+
+        synchronized void record(long now, int limit) {
+            accepted.addLast(now);
+            while (accepted.size() > limit) {
+                accepted.pollFirst();
+            }
+        }
+    }
+}
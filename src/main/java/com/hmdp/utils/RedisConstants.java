@@ -5,18 +5,39 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final String LOGIN_REVOKE_TOPIC = "login:revoke";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType:";
+    public static final Long CACHE_SHOPTYPE_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_PHONE_KEY = "cache:phone:";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String CACHE_INVALIDATE_TOPIC = "cache:invalidate";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_META_KEY = "seckill:meta:";
+    public static final String SECKILL_SOLD_OUT_TOPIC = "seckill:soldout";
+    public static final String SECKILL_META_TOPIC = "seckill:meta:evict";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKES_DELTA_KEY = "blog:likes:delta";
+    public static final String BLOG_LIKES_FLUSHING_KEY = "blog:likes:flushing";
+    public static final String BLOG_LIKES_BATCH_KEY = "blog:likes:batch";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_EPOCH_KEY = "blog:hot:epoch";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big-authors";
+    public static final String FEED_FOLLOWERS_KEY = "feed:followers:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String RATE_LIMIT_KEY = "limit:";
 }
@@ -1,17 +1,22 @@
 package com.hmdp.utils;
 
+import com.hmdp.config.IdGeneratorProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
-public class RedisIdWorker {
-    @Resource
-private StringRedisTemplate stringRedisTemplate;
+@ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "redis", matchIfMissing = true)
+public class RedisIdWorker implements IdGenerator {
+private final StringRedisTemplate stringRedisTemplate;
+    private final IdGeneratorProperties idGeneratorProperties;
     /**
      * 开始时间戳
      */
@@ -20,7 +25,18 @@ private StringRedisTemplate stringRedisTemplate;
      * 序列化位数
      */
     private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    /**
+     * 每个业务前缀当前使用的号段
+     */
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, IdGeneratorProperties idGeneratorProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.idGeneratorProperties = idGeneratorProperties;
+    }
 
+    @Override
     public long nextId(String keyPrefix){
       //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -29,14 +45,68 @@ private StringRedisTemplate stringRedisTemplate;
 
         //2.生成序列号
         //2.1获取当前日期
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         //2.2自增长
-        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = nextSequence(keyPrefix, date);
         //3.拼接并返回
 
     return timestamp<<COUNT_BITS | count;
     }
 
+    private long nextSequence(String keyPrefix, String date) {
+        String key = "icr:" + keyPrefix + ":" + date;
+        int segmentSize = idGeneratorProperties.getSegmentSize();
+        if (segmentSize <= 1) {
+            //不使用号段，每次INCR
+            return stringRedisTemplate.opsForValue().increment(key);
+        }
+        //1.先从本地号段分配，无锁
+        Segment segment = segments.get(keyPrefix);
+        long count = segment == null ? -1 : segment.next(date);
+        if (count > 0) {
+            return count;
+        }
+        //2.号段用完或者跨天，加锁申请新号段，只有一个线程访问Redis
+        synchronized (segments) {
+            segment = segments.get(keyPrefix);
+            count = segment == null ? -1 : segment.next(date);
+            if (count > 0) {
+                return count;
+            }
+            //INCRBY返回号段的最大值
+            long max = stringRedisTemplate.opsForValue().increment(key, segmentSize);
+            segment = new Segment(date, max - segmentSize + 1, max);
+            segments.put(keyPrefix, segment);
+            return segment.next(date);
+        }
+    }
+
+    /**
+     * 本地号段[start, max]，只在申请时的日期内有效
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+
+        Segment(String date, long start, long max) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.max = max;
+        }
+
+        /**
+         * @return 分配到的序列号，号段用完或者日期变化时返回-1
+         */
+        long next(String today) {
+            if (!date.equals(today)) {
+                return -1;
+            }
+            long count = cursor.getAndIncrement();
+            return count <= max ? count : -1;
+        }
+    }
+
     public static void main(String[] args) {
         LocalDateTime time = LocalDateTime.of(2025, 1, 1, 0, 0);
         long second = time.toEpochSecond(ZoneOffset.UTC);
@@ -1,25 +1,26 @@
 package com.hmdp.utils;
 
-import ch.qos.logback.core.util.StringCollectionUtil;
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
-import io.netty.util.internal.StringUtil;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private StringRedisTemplate stringRedisTemplate;
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+    private SignedTokenService signedTokenService;
+    private List<String> sensitivePaths;
+
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokenService signedTokenService,
+                                   List<String> sensitivePaths) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenService = signedTokenService;
+        this.sensitivePaths = sensitivePaths;
     }
 
     @Override
@@ -30,23 +31,41 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
 
             return true;
         }
-//        获取TOKEN中的用户
-        String userKey=RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(userKey);
+//        获取TOKEN中的用户，签名token本地校验，随机token优先查本地缓存
+        UserDTO userDTO = SignedTokenService.isSignedToken(token)
+                ? verifySignedToken(token, request, response)
+                : loginSessionCache.get(token);
 //判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
 
 //        存在保存用户信息到threadLocal
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         UserHolder.saveUser(userDTO);
-        //刷新token有效期
-        stringRedisTemplate.expire(userKey,RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         //放行
         return true;
     }
 
+    private UserDTO verifySignedToken(String token, HttpServletRequest request, HttpServletResponse response) {
+        //1.校验签名和有效期
+        SignedTokenService.SignedToken signedToken = signedTokenService.verify(token);
+        if (signedToken == null) {
+            return null;
+        }
+        //2.敏感接口检查是否已注销
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        boolean sensitive = sensitivePaths.stream().anyMatch(pattern -> PATH_MATCHER.match(pattern, path));
+        if (sensitive && signedTokenService.isRevoked(signedToken)) {
+            return null;
+        }
+        //3.快到期时续签，前端用响应头中的新token替换旧token
+        String renewed = signedTokenService.renewIfNeeded(signedToken);
+        if (renewed != null) {
+            response.setHeader("authorization", renewed);
+        }
+        return signedToken.getUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
 //移除用户
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+/**
+ * 秒杀券在Redis中的元数据，保存在 seckill:meta:{voucherId} 哈希中
+ */
+@Data
+public class SeckillMeta {
+    /**
+     * 库存分片数，1表示使用单个 seckill:stock:{voucherId}
+     */
+    private int shards = 1;
+    /**
+     * 秒杀开始时间（毫秒时间戳），0表示不限制
+     */
+    private long beginTime;
+    /**
+     * 秒杀结束时间（毫秒时间戳），0表示不限制
+     */
+    private long endTime;
+
+    /**
+     * 判断当前时间是否在秒杀时间段内
+     * @return 0在时间段内，3未开始，4已结束，与秒杀脚本的返回值一致
+     */
+    public int checkWindow(long now) {
+        if (beginTime > 0 && now < beginTime) {
+            return 3;
+        }
+        if (endTime > 0 && now > endTime) {
+            return 4;
+        }
+        return 0;
+    }
+}
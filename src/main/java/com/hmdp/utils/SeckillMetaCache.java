@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券元数据的本地缓存，避免每次秒杀请求都去Redis查询分片数和秒杀时间段。
+ * Redis中没有元数据时缓存默认元数据 metaMissTtl，避免不存在的券每次请求都访问Redis；
+ * 元数据修改后通过Redis发布订阅通知所有节点清除本地缓存
+ */
+@Slf4j
+@Component
+public class SeckillMetaCache implements MessageListener {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillProperties seckillProperties;
+    private final Map<Long, Entry> cache = new ConcurrentHashMap<>();
+
+    public SeckillMetaCache(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                            RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_META_TOPIC));
+    }
+
+    /**
+     * 分片库存key，{voucherId:shard}作为hash tag。下单用户不跟随库存分片，统一记在用户主分片的 orderKey 中
+     */
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片下单用户集合，用户按id哈希到主分片，不论从哪个分片扣减库存都记在这里
+     */
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public SeckillMeta get(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(voucherId);
+        if (entry != null && entry.expireAt > now) {
+            return entry.meta;
+        }
+        //本地未命中或空结果已过期，从Redis加载
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(SECKILL_META_KEY + voucherId);
+        SeckillMeta meta = new SeckillMeta();
+        if (entries.isEmpty()) {
+            //老数据没有元数据，按不分片处理，只短暂缓存，券稍后在其他节点创建时也会收到清除通知
+            cache.put(voucherId, new Entry(meta, now + seckillProperties.getMetaMissTtl().toMillis()));
+            return meta;
+        }
+        String shards = (String) entries.get("shards");
+        if (StrUtil.isNotBlank(shards)) {
+            meta.setShards(Integer.parseInt(shards));
+        }
+        String begin = (String) entries.get("begin");
+        if (StrUtil.isNotBlank(begin)) {
+            meta.setBeginTime(Long.parseLong(begin));
+        }
+        String end = (String) entries.get("end");
+        if (StrUtil.isNotBlank(end)) {
+            meta.setEndTime(Long.parseLong(end));
+        }
+        cache.put(voucherId, new Entry(meta, Long.MAX_VALUE));
+        return meta;
+    }
+
+    /**
+     * 保存元数据，清除本节点缓存并通知其他节点，下次访问时重新从Redis加载
+     */
+    public void save(Long voucherId, SeckillMeta meta) {
+        Map<String, String> map = new HashMap<>();
+        map.put("shards", String.valueOf(meta.getShards()));
+        if (meta.getBeginTime() > 0) {
+            map.put("begin", String.valueOf(meta.getBeginTime()));
+        }
+        if (meta.getEndTime() > 0) {
+            map.put("end", String.valueOf(meta.getEndTime()));
+        }
+        stringRedisTemplate.opsForHash().putAll(SECKILL_META_KEY + voucherId, map);
+        cache.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_META_TOPIC, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            cache.remove(Long.valueOf(body));
+        } catch (RuntimeException e) {
+            log.warn("无法解析秒杀券元数据清除消息: {}", body);
+        }
+    }
+
+    private static class Entry {
+        private final SeckillMeta meta;
+        /**
+         * 本地缓存的过期时间，Redis中存在的元数据不过期，只在收到清除通知时删除
+         */
+        private final long expireAt;
+
+        Entry(SeckillMeta meta, long expireAt) {
+            this.meta = meta;
+            this.expireAt = expireAt;
+        }
+    }
+}
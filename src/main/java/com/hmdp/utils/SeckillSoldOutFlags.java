@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TOPIC;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 本地售罄标记表：券卖完后本节点直接拒绝请求，不再访问Redis。
+ * 标记通过Redis发布订阅同步到其他节点，消息格式为 +voucherId（售罄）和 -voucherId（补货）。
+ * 标记只在 soldOutFlagTtl 内有效，即使错过了补货消息，过期后也会重新访问一次Redis确认。
+ * 本节点也只通过订阅收到的 +voucherId 设置标记，和补货的 -voucherId 按Redis中的发布顺序生效
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags implements MessageListener {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillProperties seckillProperties;
+    /**
+     * voucherId -> 标记售罄的时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    private static final DefaultRedisScript<Long> SOLD_OUT_SCRIPT;
+    static {
+        SOLD_OUT_SCRIPT = new DefaultRedisScript<>();
+        SOLD_OUT_SCRIPT.setLocation(new ClassPathResource("seckill_sold_out.lua"));
+        SOLD_OUT_SCRIPT.setResultType(Long.class);
+    }
+
+    public SeckillSoldOutFlags(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                               RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_TOPIC));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > seckillProperties.getSoldOutFlagTtl().toMillis()) {
+            soldOut.remove(voucherId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 确认Redis中各分片库存都为0后广播售罄，包括本节点在内的所有节点收到消息后设置标记。
+     * 秒杀脚本返回库存不足后可能已经补货，由脚本重新检查库存，补货后不会再广播过期的售罄结果
+     */
+    public void markSoldOut(Long voucherId, int shards) {
+        List<String> keys;
+        if (shards == 1) {
+            keys = Collections.singletonList(SECKILL_STOCK_KEY + voucherId);
+        } else {
+            keys = new ArrayList<>(shards);
+            for (int i = 0; i < shards; i++) {
+                keys.add(SeckillMetaCache.stockKey(voucherId, i));
+            }
+        }
+        stringRedisTemplate.execute(SOLD_OUT_SCRIPT, keys, SECKILL_SOLD_OUT_TOPIC, "+" + voucherId);
+    }
+
+    /**
+     * 补货的Redis库存增加之后调用，清除标记并通知其他节点
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_TOPIC, "-" + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.charAt(0) == '+') {
+                soldOut.putIfAbsent(voucherId, System.currentTimeMillis());
+            } else {
+                soldOut.remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法解析售罄消息: {}", body);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.HMac;
+import cn.hutool.crypto.digest.HmacAlgorithm;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.SessionProperties;
+import com.hmdp.dto.UserDTO;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+
+/**
+ * 签名token：base64url(载荷).base64url(HMAC-SHA256(载荷))，载荷包含用户id、昵称、头像、过期时间和token编号jti。
+ * 校验只需要本地计算签名，不访问Redis；
+ * 注销时把jti写入 login:revoked（分数为token的过期时间），只有敏感接口和续签时才检查，过期的记录定时清除
+ */
+@Slf4j
+@Component
+public class SignedTokenService {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SessionProperties sessionProperties;
+    /**
+     * HMac实例不是线程安全的，只保存密钥，每次使用时创建
+     */
+    private final byte[] secret;
+
+    public SignedTokenService(StringRedisTemplate stringRedisTemplate, SessionProperties sessionProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.sessionProperties = sessionProperties;
+        if (StrUtil.isBlank(sessionProperties.getSigningSecret())) {
+            this.secret = RandomUtil.randomBytes(32);
+            if ("signed".equals(sessionProperties.getTokenMode())) {
+                log.warn("没有配置hmdp.session.signing-secret，使用随机密钥，重启或其他节点签发的token将无法校验");
+            }
+        } else {
+            this.secret = StrUtil.utf8Bytes(sessionProperties.getSigningSecret());
+        }
+    }
+
+    /**
+     * 是否为签名token，随机token中不含"."
+     */
+    public static boolean isSignedToken(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发新token
+     */
+    public String issue(UserDTO user) {
+        return issue(user, UUID.fastUUID().toString(true));
+    }
+
+    /**
+     * 校验签名和有效期，不访问Redis
+     * @return 校验失败或已过期时返回null
+     */
+    public SignedToken verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        byte[] signature;
+        try {
+            signature = Base64.decode(token.substring(dot + 1));
+        } catch (Exception e) {
+            return null;
+        }
+        //常量时间比较，避免通过响应时间猜测签名
+        if (!MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+        JSONObject claims = JSONUtil.parseObj(Base64.decodeStr(payload));
+        long expireAt = claims.getLong("exp");
+        if (expireAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(claims.getLong("id"));
+        user.setNickName(claims.getStr("nickName"));
+        user.setIcon(claims.getStr("icon"));
+        return new SignedToken(user, claims.getStr("jti"), expireAt);
+    }
+
+    /**
+     * 剩余有效期不足时重新签发，沿用原来的jti，注销时新旧token一起失效
+     * @return 不需要续签或者token已注销时返回null
+     */
+    public String renewIfNeeded(SignedToken token) {
+        long remaining = token.getExpireAt() - System.currentTimeMillis();
+        if (remaining >= sessionProperties.getSignedTokenRenewBefore().toMillis()) {
+            return null;
+        }
+        //已注销的token不能再续签
+        if (isRevoked(token)) {
+            return null;
+        }
+        return issue(token.getUser(), token.getJti());
+    }
+
+    public boolean isRevoked(SignedToken token) {
+        return stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, token.getJti()) != null;
+    }
+
+    /**
+     * 注销token，记录保留到token过期为止
+     */
+    public void revoke(SignedToken token) {
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, token.getJti(), token.getExpireAt());
+    }
+
+    /**
+     * 清除已经过期的注销记录，过期的token本身就无法通过校验
+     */
+    @Scheduled(fixedDelay = 600000)
+    public void purgeExpired() {
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, System.currentTimeMillis());
+    }
+
+    private String issue(UserDTO user, String jti) {
+        JSONObject claims = new JSONObject();
+        claims.set("id", user.getId());
+        claims.set("nickName", user.getNickName());
+        claims.set("icon", user.getIcon());
+        claims.set("exp", System.currentTimeMillis() + sessionProperties.getSignedTokenTtl().toMillis());
+        claims.set("jti", jti);
+        String payload = Base64.encodeUrlSafe(claims.toString());
+        return payload + "." + Base64.encodeUrlSafe(sign(payload));
+    }
+
+    private byte[] sign(String payload) {
+        return new HMac(HmacAlgorithm.HmacSHA256, secret).digest(payload);
+    }
+
+    @Data
+    public static class SignedToken {
+        private final UserDTO user;
+        private final String jti;
+        private final long expireAt;
+    }
+}
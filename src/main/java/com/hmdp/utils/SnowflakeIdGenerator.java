@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.IdGeneratorProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地雪花算法ID生成器：41位时间戳 + 10位workerId + 12位序列号。
+ * workerId启动时从Redis租用并定时续约，生成ID不访问Redis，也不加锁。
+ * 时钟回拨时沿用上次的时间戳继续递增，保证同一workerId生成的ID单调递增；
+ * 每次续约都会记录已用到的时间戳，重启后从该时间戳之后继续，避免重启前后的回拨造成重复
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.id.generator", havingValue = "snowflake")
+public class SnowflakeIdGenerator implements IdGenerator {
+    /**
+     * 开始时间戳 2025-01-01 00:00:00 UTC，与RedisIdWorker一致
+     */
+    private static final long BEGIN_EPOCH_MILLIS = 1735689600000L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final String WORKER_KEY = "id:worker:";
+    private static final String WORKER_TS_KEY = "id:worker:ts:";
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IdGeneratorProperties idGeneratorProperties;
+    private final String owner = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid() + "-" + UUID.fastUUID().toString(true);
+    /**
+     * 上一次分配的 时间戳 << SEQUENCE_BITS | 序列号，时间戳是相对BEGIN_EPOCH_MILLIS的毫秒数
+     */
+    private final AtomicLong state = new AtomicLong();
+    private volatile long workerId = -1;
+    private ScheduledExecutorService renewExecutor;
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, IdGeneratorProperties idGeneratorProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.idGeneratorProperties = idGeneratorProperties;
+    }
+
+    @PostConstruct
+    public void start() {
+        leaseWorkerId();
+        long period = renewPeriodMillis();
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("id-worker-renew-", true));
+        renewExecutor.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (renewExecutor != null) {
+            renewExecutor.shutdownNow();
+        }
+        //记录最后用到的时间戳，租约到期后自动释放
+        renew();
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        while (true) {
+            long last = state.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long now = System.currentTimeMillis() - BEGIN_EPOCH_MILLIS;
+            //1.进入新的毫秒，序列号从0开始
+            //2.同一毫秒或者时钟回拨，在上次的基础上加1，序列号用完时进位到下一毫秒
+            long next = now > lastTimestamp ? now << SEQUENCE_BITS : last + 1;
+            if (state.compareAndSet(last, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | workerId << SEQUENCE_BITS
+                        | next & SEQUENCE_MASK;
+            }
+        }
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    private void leaseWorkerId() {
+        long ttl = idGeneratorProperties.getWorkerLeaseTtl().getSeconds();
+        //从随机位置开始找空闲的workerId，减少多节点同时启动时的冲突
+        long start = RandomUtil.randomInt((int) MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(WORKER_KEY + id, owner, ttl, TimeUnit.SECONDS);
+            if (!BooleanUtil.isTrue(success)) {
+                continue;
+            }
+            //上一个持有者最后一次续约后可能还生成过ID，再往后推一个续约周期
+            String lastTimestamp = stringRedisTemplate.opsForValue().get(WORKER_TS_KEY + id);
+            if (StrUtil.isNotBlank(lastTimestamp)) {
+                long floor = (Long.parseLong(lastTimestamp) + renewPeriodMillis()) << SEQUENCE_BITS | SEQUENCE_MASK;
+                state.accumulateAndGet(floor, Math::max);
+            }
+            workerId = id;
+            log.info("租用workerId成功，workerId: {}", id);
+            return;
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    private void renew() {
+        try {
+            long lastTimestamp = state.get() >>> SEQUENCE_BITS;
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Arrays.asList(WORKER_KEY + workerId, WORKER_TS_KEY + workerId),
+                    owner,
+                    String.valueOf(idGeneratorProperties.getWorkerLeaseTtl().getSeconds()),
+                    String.valueOf(lastTimestamp));
+            if (result == null || result == 0) {
+                //租约已丢失（例如长时间停顿后过期），重新租用一个workerId
+                log.error("workerId租约丢失，重新申请，workerId: {}", workerId);
+                leaseWorkerId();
+            }
+        } catch (Exception e) {
+            log.error("workerId续约失败，workerId: {}", workerId, e);
+        }
+    }
+
+    private long renewPeriodMillis() {
+        return idGeneratorProperties.getWorkerLeaseTtl().toMillis() / 3;
+    }
+}
@@ -0,0 +1,28 @@
+-- 1.参数列表
+-- 1.1.热门笔记zset
+local hotKey = KEYS[1]
+-- 1.2.计分基准时间
+local epochKey = KEYS[2]
+-- 1.3.笔记id
+local blogId = ARGV[1]
+-- 1.4.本次增加的热度
+local weight = tonumber(ARGV[2])
+-- 1.5.当前时间
+local now = tonumber(ARGV[3])
+-- 1.6.半衰期（毫秒）
+local halfLife = tonumber(ARGV[4])
+-- 1.7.行为发生的时间，取消点赞时传入当初的点赞时间，不传则为当前时间
+local at = tonumber(ARGV[5]) or now
+
+-- 2.读取基准时间，第一次使用时以当前时间为基准
+local epoch = tonumber(redis.call('get', epochKey))
+if (epoch == nil) then
+    epoch = now
+    redis.call('set', epochKey, now)
+end
+-- 3.越晚发生的行为分数越高：weight * 2^((at - epoch) / halfLife)，
+-- 所有分数同时除以 2^((now - epoch) / halfLife) 就是当前衰减后的热度，排序不受影响。
+-- 取消点赞按点赞时间计算，扣掉的正好是那次点赞加上的分数
+local score = weight * math.pow(2, (at - epoch) / halfLife)
+redis.call('zincrby', hotKey, score, blogId)
+return 1
@@ -0,0 +1,27 @@
+-- 1.参数列表
+-- 1.1.热门笔记zset
+local hotKey = KEYS[1]
+-- 1.2.计分基准时间
+local epochKey = KEYS[2]
+-- 1.3.当前时间
+local now = tonumber(ARGV[1])
+-- 1.4.半衰期（毫秒）
+local halfLife = tonumber(ARGV[2])
+-- 1.5.最多保留的笔记数
+local maxSize = tonumber(ARGV[3])
+
+-- 2.先裁剪，只保留热度最高的maxSize篇
+redis.call('zremrangebyrank', hotKey, 0, -(maxSize + 1))
+local epoch = tonumber(redis.call('get', epochKey))
+if (epoch == nil) then
+    redis.call('set', epochKey, now)
+    return 0
+end
+-- 3.把基准时间移动到当前时间，所有分数按比例缩小，避免分数随时间无限增长
+local factor = math.pow(2, (now - epoch) / halfLife)
+local members = redis.call('zrange', hotKey, 0, -1, 'WITHSCORES')
+for i = 1, #members, 2 do
+    redis.call('zadd', hotKey, tonumber(members[i + 1]) / factor, members[i])
+end
+redis.call('set', epochKey, now)
+return #members / 2
@@ -0,0 +1,22 @@
+-- 从待写回的增量中取出一批笔记，移到当前批次hash中，同时写入批次号
+-- KEYS[1] 待写回的增量 blog:likes:flushing
+-- KEYS[2] 当前批次 blog:likes:batch
+-- ARGV[1] 批次号，ARGV[2..] 笔记id
+-- 返回移入批次的笔记数，上一批还没有处理完时返回-1
+if (redis.call('exists', KEYS[2]) == 1) then
+    return -1
+end
+local count = 0
+for i = 2, #ARGV do
+    local delta = redis.call('hget', KEYS[1], ARGV[i])
+    -- 增量为0的笔记不需要写回，直接删除
+    if (delta and delta ~= '0') then
+        redis.call('hset', KEYS[2], ARGV[i], delta)
+        count = count + 1
+    end
+    redis.call('hdel', KEYS[1], ARGV[i])
+end
+if (count > 0) then
+    redis.call('hset', KEYS[2], 'flushId', ARGV[1])
+end
+return count
@@ -0,0 +1,7 @@
+-- 点赞数写回批次记录，与点赞数的UPDATE在同一个事务中写入，同一批次重复写回时因主键冲突跳过
+CREATE TABLE IF NOT EXISTS `tb_blog_like_flush` (
+  `id` bigint(20) UNSIGNED NOT NULL COMMENT '写回批次号',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '写回时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  KEY `idx_create_time` (`create_time`)
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
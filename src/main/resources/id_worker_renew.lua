@@ -0,0 +1,10 @@
+-- 续约workerId租约
+-- KEYS[1] 租约key id:worker:{workerId}
+-- KEYS[2] 该workerId用过的最大时间戳 id:worker:ts:{workerId}
+-- ARGV[1] 持有者标识 ARGV[2] 租约秒数 ARGV[3] 当前已用到的时间戳
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    redis.call('expire', KEYS[1], ARGV[2])
+    redis.call('set', KEYS[2], ARGV[3])
+    return 1
+end
+return 0
@@ -0,0 +1,24 @@
+-- 1.参数列表
+-- 1.1.点赞用户的zset
+local likedKey = KEYS[1]
+-- 1.2.待写回数据库的点赞数增量hash
+local deltaKey = KEYS[2]
+-- 1.3.用户id
+local userId = ARGV[1]
+-- 1.4.点赞时间
+local now = ARGV[2]
+-- 1.5.笔记id
+local blogId = ARGV[3]
+
+-- 2.判断是否已经点赞
+local likedAt = redis.call('zscore', likedKey, userId)
+if (likedAt) then
+    -- 2.1.已点赞，取消点赞，点赞数-1，返回当初的点赞时间，用来扣掉那次点赞加的热度
+    redis.call('zrem', likedKey, userId)
+    redis.call('hincrby', deltaKey, blogId, -1)
+    return tonumber(likedAt)
+end
+-- 3.未点赞，点赞，点赞数+1，返回0
+redis.call('zadd', likedKey, now, userId)
+redis.call('hincrby', deltaKey, blogId, 1)
+return 0
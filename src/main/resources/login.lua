@@ -0,0 +1,14 @@
+-- 登录：校验并删除验证码，一次调用原子完成，同一个验证码只有一个请求能通过
+-- 验证码key
+local codeKey = KEYS[1]
+-- 用户提交的验证码
+local code = ARGV[1]
+
+-- 1.校验验证码
+local cacheCode = redis.call('get', codeKey)
+if (not cacheCode) or cacheCode ~= code then
+    return 0
+end
+-- 2.验证码只能使用一次
+redis.call('del', codeKey)
+return 1
@@ -0,0 +1,32 @@
+-- 滑动窗口限流：窗口内放行的请求记录在zset中，分数为请求时间
+-- 一个请求可以同时受多条规则限制，先检查所有窗口，全部未满才在每个窗口记录本次请求，被拒绝时不占用任何窗口
+-- KEYS[i] 第i条规则的限流key
+-- 本次请求的唯一标识
+local member = ARGV[1]
+-- ARGV[2i] 第i条规则的窗口长度（毫秒），ARGV[2i+1] 第i条规则窗口内最多放行的请求数
+
+-- 当前时间（毫秒）取Redis服务器时间，各节点时钟不一致也共用同一个窗口；
+-- 调用TIME后还要写入，Redis 5以前需要按命令复制
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 1.移除已经滑出窗口的请求，窗口已满时返回规则序号和最早的请求滑出窗口还需要等待的毫秒数
+for i, key in ipairs(KEYS) do
+    local window = tonumber(ARGV[2 * i])
+    local limit = tonumber(ARGV[2 * i + 1])
+    redis.call('zremrangebyscore', key, 0, now - window)
+    if redis.call('zcard', key) >= limit then
+        local oldest = redis.call('zrange', key, 0, 0, 'WITHSCORES')
+        if (#oldest == 0) then
+            return {i, window}
+        end
+        return {i, math.max(1, tonumber(oldest[2]) + window - now)}
+    end
+end
+-- 2.全部放行，在每个窗口记录
+for i, key in ipairs(KEYS) do
+    redis.call('zadd', key, now, member)
+    redis.call('pexpire', key, ARGV[2 * i])
+end
+return {}
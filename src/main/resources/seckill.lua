@@ -2,12 +2,24 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 --订单Id
 local orderId=ARGV[3]
+--当前时间（毫秒）
+local now = tonumber(ARGV[4])
 
 -- Key
 local stockKey = 'seckill:stock:' .. voucherId
 local orderKey = 'seckill:order:' .. voucherId
+local metaKey = 'seckill:meta:' .. voucherId
 
 -- 脚本业务
+-- 判断是否在秒杀时间段内，3未开始，4已结束
+local window = redis.call('hmget', metaKey, 'begin', 'end')
+if (window[1] and now < tonumber(window[1])) then
+    return 3
+end
+if (window[2] and now > tonumber(window[2])) then
+    return 4
+end
+
 -- 判断库存是否充足
 if (tonumber(redis.call('get', stockKey)) <= 0) then
     return 1
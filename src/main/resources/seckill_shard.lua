@@ -0,0 +1,30 @@
+-- 分片秒杀脚本，每次尝试一个分片，一人一单、扣库存、发送订单消息在同一次脚本调用中完成
+-- KEYS[1] 主分片（用户哈希到的分片）的下单用户集合 seckill:order:{voucherId:home}
+-- KEYS[2] 本次尝试的分片库存 seckill:stock:{voucherId:shard}
+-- KEYS[3] 订单消息队列 stream.orders
+-- ARGV[1] 优惠券id ARGV[2] 用户id ARGV[3] 订单id
+-- 秒杀时间段由调用方判断
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+
+-- 判断用户是否已经下单，不论从哪个分片扣的库存，用户都记在主分片的集合中
+if (redis.call('sismember', KEYS[1], userId) == 1) then
+    return 2
+end
+
+-- 判断分片库存是否充足，不足由调用方换下一个分片
+local stock = tonumber(redis.call('get', KEYS[2]))
+if (stock == nil or stock <= 0) then
+    return 1
+end
+
+-- 扣库存
+redis.call('incrby', KEYS[2], -1)
+
+-- 下单（保存用户）
+redis.call('sadd', KEYS[1], userId)
+
+--发送消息到队列
+redis.call('xadd', KEYS[3], '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
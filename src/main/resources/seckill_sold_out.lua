@@ -0,0 +1,15 @@
+-- 售罄广播脚本，在Redis中确认库存确实为0后才发布售罄消息
+-- KEYS 该券的全部库存key（不分片时只有 seckill:stock:voucherId）
+-- ARGV[1] 售罄频道 ARGV[2] 消息内容 +voucherId
+-- 补货先增加库存再发布 -voucherId，脚本原子地检查库存并发布，补货前拿到的售罄结果不会在补货之后再广播
+
+-- 任意一个key还有库存说明已经补货，不发布
+for i = 1, #KEYS do
+    local stock = tonumber(redis.call('get', KEYS[i]))
+    if (stock ~= nil and stock > 0) then
+        return 0
+    end
+end
+
+redis.call('publish', ARGV[1], ARGV[2])
+return 1
@@ -1,6 +1,6 @@
 
 --比较标识
-if(redis.call('get',kEY[1])==ARGV[1]) then
-    return redis.call('del',kEY[1])
+if(redis.call('get',KEYS[1])==ARGV[1]) then
+    return redis.call('del',KEYS[1])
     end
 return 0
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.KryoCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编码基准测试，不需要Redis，运行main方法即可。
+ * 对比JSON和Kryo编码一个店铺的耗时，以及逻辑过期数据的解码耗时；每条数据的字节数在开始时打印
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final KryoCacheCodec kryoCodec = new KryoCacheCodec();
+    private Shop shop;
+    private LocalDateTime expireTime;
+    private byte[] jsonBytes;
+    private byte[] kryoBytes;
+    private byte[] jsonExpireBytes;
+    private byte[] kryoExpireBytes;
+
+    @Setup
+    public void setUp() {
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        expireTime = LocalDateTime.now().plusMinutes(30);
+        jsonBytes = jsonCodec.encode(shop);
+        kryoBytes = kryoCodec.encode(shop);
+        jsonExpireBytes = jsonCodec.encodeWithExpire(shop, expireTime);
+        kryoExpireBytes = kryoCodec.encodeWithExpire(shop, expireTime);
+        System.out.printf("%n每条数据字节数 json: %d, kryo: %d, json(逻辑过期): %d, kryo(逻辑过期): %d%n",
+                jsonBytes.length, kryoBytes.length, jsonExpireBytes.length, kryoExpireBytes.length);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return jsonCodec.encode(shop);
+    }
+
+    @Benchmark
+    public byte[] kryoEncode() {
+        return kryoCodec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop jsonDecode() {
+        return jsonCodec.decode(jsonBytes, Shop.class);
+    }
+
+    @Benchmark
+    public Shop kryoDecode() {
+        return kryoCodec.decode(kryoBytes, Shop.class);
+    }
+
+    @Benchmark
+    public RedisData jsonDecodeWithExpire() {
+        return jsonCodec.decodeWithExpire(jsonExpireBytes, Shop.class);
+    }
+
+    @Benchmark
+    public RedisData kryoDecodeWithExpire() {
+        return kryoCodec.decodeWithExpire(kryoExpireBytes, Shop.class);
+    }
+
+    @Benchmark
+    public LocalDateTime jsonReadExpireTime() {
+        return jsonCodec.readExpireTime(jsonExpireBytes);
+    }
+
+    @Benchmark
+    public LocalDateTime kryoReadExpireTime() {
+        return kryoCodec.readExpireTime(kryoExpireBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.KryoCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存编码往返测试：编码后再解码得到相同的数据，Kryo编码可以读取JSON编码写入的数据
+ */
+class CacheCodecTest {
+    private static final LocalDateTime EXPIRE_TIME = LocalDateTime.of(2025, 6, 1, 12, 30, 0);
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final KryoCacheCodec kryoCodec = new KryoCacheCodec();
+
+    @Test
+    void jsonRoundTrip() {
+        assertRoundTrip(jsonCodec);
+    }
+
+    @Test
+    void kryoRoundTrip() {
+        assertRoundTrip(kryoCodec);
+    }
+
+    @Test
+    void kryoReadsJsonData() {
+        Shop shop = shop();
+        assertEquals(shop, kryoCodec.decode(jsonCodec.encode(shop), Shop.class));
+        byte[] expireBytes = jsonCodec.encodeWithExpire(shop, EXPIRE_TIME);
+        assertEquals(EXPIRE_TIME, kryoCodec.readExpireTime(expireBytes));
+        assertEquals(shop, kryoCodec.decodeWithExpire(expireBytes, Shop.class).getData());
+    }
+
+    private void assertRoundTrip(CacheCodec codec) {
+        Shop shop = shop();
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+
+        List<ShopType> types = new ArrayList<>(Arrays.asList(
+                new ShopType().setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1),
+                new ShopType().setId(2L).setName("KTV").setIcon("/types/KTV.png").setSort(2)));
+        assertEquals(types, codec.decodeList(codec.encode(types), ShopType.class));
+
+        //不是逻辑过期格式的数据读不到过期时间
+        assertNull(codec.readExpireTime(codec.encode(shop)));
+        byte[] expireBytes = codec.encodeWithExpire(shop, EXPIRE_TIME);
+        assertEquals(EXPIRE_TIME, codec.readExpireTime(expireBytes));
+        RedisData redisData = codec.decodeWithExpire(expireBytes, Shop.class);
+        assertEquals(EXPIRE_TIME, redisData.getExpireTime());
+        assertEquals(shop, redisData.getData());
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+}
@@ -4,7 +4,7 @@ import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
@@ -31,7 +31,7 @@ class HmDianPingApplicationTests {
 @Resource
 private CacheClient cacheClient;
 @Resource
-private RedisIdWorker redisIdWorker;
+private IdGenerator idGenerator;
 @Resource
 private StringRedisTemplate stringRedisTemplate;
 
@@ -47,7 +47,7 @@ private ExecutorService executorService = Executors.newFixedThreadPool(500);
     CountDownLatch latch = new CountDownLatch(300);
     Runnable runnable = () -> {
         for (int i = 0; i < 100; i++) {
-            long id = redisIdWorker.nextId("order");
+            long id = idGenerator.nextId("order");
             System.out.println("id="+id);
         }
         latch.countDown();
@@ -0,0 +1,78 @@
+package com.hmdp;
+
+import com.hmdp.config.IdGeneratorProperties;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ID生成器基准测试，需要本地Redis（与application.yaml配置一致）
+ * 运行main方法即可，对比每次INCR、号段模式和雪花算法的吞吐量
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+    private LettuceConnectionFactory connectionFactory;
+    private RedisIdWorker redisIdWorker;
+    private RedisIdWorker segmentIdWorker;
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @Setup
+    public void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration("localhost", 6379);
+        configuration.setPassword("123456");
+        configuration.setDatabase(10);
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, new IdGeneratorProperties());
+        IdGeneratorProperties segmentProperties = new IdGeneratorProperties();
+        segmentProperties.setSegmentSize(1000);
+        segmentIdWorker = new RedisIdWorker(stringRedisTemplate, segmentProperties);
+        snowflakeIdGenerator = new SnowflakeIdGenerator(stringRedisTemplate, new IdGeneratorProperties());
+        snowflakeIdGenerator.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        snowflakeIdGenerator.stop();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public long redisIncr() {
+        return redisIdWorker.nextId("bench");
+    }
+
+    @Benchmark
+    public long redisSegment() {
+        return segmentIdWorker.nextId("bench");
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflakeIdGenerator.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdGeneratorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp;
+
+import com.hmdp.utils.RateLimitException;
+import com.hmdp.utils.RateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * 限流窗口测试：Redis滑动窗口脚本使用mock，验证本地预检查和本地令牌桶
+ */
+class RateLimiterTest {
+    private static final long WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    private StringRedisTemplate stringRedisTemplate;
+    private RateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        rateLimiter = new RateLimiter(stringRedisTemplate);
+    }
+
+    @Test
+    void localWindowRejectsWithoutRedisOnceLimitReached() {
+        stubScript(0L);
+        assertTrue(rateLimiter.tryAcquire("test", 2, WINDOW));
+        assertTrue(rateLimiter.tryAcquire("test", 2, WINDOW));
+        //本节点窗口内已经放行了2个，不再访问Redis
+        assertFalse(rateLimiter.tryAcquire("test", 2, WINDOW));
+        verifyScriptCalls(2);
+        assertEquals(1, rateLimiter.getLocalRejectedCount());
+    }
+
+    @Test
+    void remoteWaitBlocksLocally() {
+        stubScript(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(rateLimiter.tryAcquire("test", 5, WINDOW));
+        //等待期间本节点直接拒绝
+        assertFalse(rateLimiter.tryAcquire("test", 5, WINDOW));
+        verifyScriptCalls(1);
+        assertEquals(1, rateLimiter.getRemoteRejectedCount());
+        assertEquals(1, rateLimiter.getLocalRejectedCount());
+    }
+
+    @Test
+    void keysHaveSeparateWindows() {
+        stubScript(0L);
+        assertTrue(rateLimiter.tryAcquire("a", 1, WINDOW));
+        assertFalse(rateLimiter.tryAcquire("a", 1, WINDOW));
+        assertTrue(rateLimiter.tryAcquire("b", 1, WINDOW));
+    }
+
+    @Test
+    void allowsWhenRedisUnavailable() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        assertTrue(rateLimiter.tryAcquire("test", 1, WINDOW));
+    }
+
+    @Test
+    void rejectedRuleDoesNotTakeOtherRulesSlots() {
+        //第二条规则被拒绝时，第一条规则的令牌要归还
+        List<RateLimiter.Rule> rules = Arrays.asList(
+                new RateLimiter.Rule("phone", 1, WINDOW, false, "phone"),
+                new RateLimiter.Rule("ip", 1, WINDOW, false, "ip"));
+        rateLimiter.checkAll(Collections.singletonList(rules.get(1)));
+        RateLimitException e = assertThrows(RateLimitException.class, () -> rateLimiter.checkAll(rules));
+        assertEquals("ip", e.getMessage());
+        assertTrue(rateLimiter.tryAcquireLocal("phone", 1, WINDOW));
+    }
+
+    @Test
+    void remoteRejectionReturnsLocalTokens() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any()))
+                .thenReturn(Arrays.asList(1L, 1000L));
+        List<RateLimiter.Rule> rules = Arrays.asList(
+                new RateLimiter.Rule("local", 1, WINDOW, false, "local"),
+                new RateLimiter.Rule("remote", 1, WINDOW, true, "remote"));
+        RateLimitException e = assertThrows(RateLimitException.class, () -> rateLimiter.checkAll(rules));
+        assertEquals("remote", e.getMessage());
+        assertTrue(rateLimiter.tryAcquireLocal("local", 1, WINDOW));
+    }
+
+    @Test
+    void tokenBucketAllowsBurstThenRejects() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rateLimiter.tryAcquireLocal("test", 3, TimeUnit.HOURS.toMillis(1)));
+        }
+        assertFalse(rateLimiter.tryAcquireLocal("test", 3, TimeUnit.HOURS.toMillis(1)));
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    /**
+     * 单条规则的脚本返回值：放行时为空列表，拒绝时为 [1, 等待毫秒数]
+     */
+    @SuppressWarnings("unchecked")
+    private void stubScript(long waitMillis) {
+        when(stringRedisTemplate.execute(any(RedisScript.class), anyList(), any(), any(), any()))
+                .thenReturn(waitMillis == 0 ? Collections.emptyList() : Arrays.asList(1L, waitMillis));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void verifyScriptCalls(int times) {
+        verify(stringRedisTemplate, times(times)).execute(any(RedisScript.class), anyList(), any(), any(), any());
+    }
+}
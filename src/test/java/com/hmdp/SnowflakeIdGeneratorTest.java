@@ -0,0 +1,112 @@
+package com.hmdp;
+
+import com.hmdp.config.IdGeneratorProperties;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 雪花算法ID生成器测试，Redis使用mock，不需要启动Redis
+ */
+class SnowflakeIdGeneratorTest {
+    /**
+     * 与SnowflakeIdGenerator中的开始时间戳一致
+     */
+    private static final long BEGIN_EPOCH_MILLIS = 1735689600000L;
+    private static final int TIMESTAMP_SHIFT = 22;
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ValueOperations<String, String> valueOperations;
+    private SnowflakeIdGenerator generator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        generator = new SnowflakeIdGenerator(stringRedisTemplate, new IdGeneratorProperties());
+    }
+
+    @AfterEach
+    void tearDown() {
+        generator.stop();
+    }
+
+    @Test
+    void idsIncreaseInOneThread() {
+        generator.start();
+        long last = generator.nextId("order");
+        //超过一毫秒的序列号上限，覆盖进位到下一毫秒的情况
+        for (int i = 0; i < 100000; i++) {
+            long id = generator.nextId("order");
+            assertTrue(id > last, "ID没有递增: " + last + " -> " + id);
+            assertEquals(generator.getWorkerId(), (id >>> 12) & 1023);
+            last = id;
+        }
+    }
+
+    @Test
+    void idsAreUniqueAcrossThreads() throws Exception {
+        generator.start();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    List<Long> ids = new ArrayList<>(10000);
+                    for (int i = 0; i < 10000; i++) {
+                        ids.add(generator.nextId("order"));
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> all = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                List<Long> ids = future.get();
+                for (int i = 1; i < ids.size(); i++) {
+                    assertTrue(ids.get(i) > ids.get(i - 1));
+                }
+                all.addAll(ids);
+            }
+            assertEquals(80000, all.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void continuesAfterLastLeaseTimestampWhenClockIsBehind() {
+        //上一个持有者已经用到了一小时之后的时间戳，相当于本机时钟回拨了一小时
+        long lastTimestamp = System.currentTimeMillis() - BEGIN_EPOCH_MILLIS + TimeUnit.HOURS.toMillis(1);
+        when(valueOperations.get(startsWith("id:worker:ts:"))).thenReturn(String.valueOf(lastTimestamp));
+        generator.start();
+
+        long first = generator.nextId("order");
+        assertTrue(first >>> TIMESTAMP_SHIFT > lastTimestamp, "回拨后生成的ID时间戳不能早于上次用到的时间戳");
+        long last = first;
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.nextId("order");
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+}